@@ -0,0 +1,86 @@
+package cdle.opencv;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/* Packs whole videos into splits of up to frames.combine.split.mb, grouped by node and rack,
+   so a folder of short clips runs in a few map tasks instead of one per clip. Each video is
+   still read on its own by a VideoRecordReader, one after the other. */
+public class CombineVideoInputFormat extends CombineFileInputFormat<FrameKey, BytesWritable> {
+
+    // frames.combine.split.mb when unset: off, see VideoInputFormat.fromConfiguration
+    static final long DEFAULT_SPLIT_MB = 0;
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path filename) {
+        // Clips are packed whole, frames.split.seconds does not apply
+        return false;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        // Only selected when frames.combine.split.mb is set, see VideoInputFormat.fromConfiguration
+        setMaxSplitSize(job.getConfiguration().getLong("frames.combine.split.mb", DEFAULT_SPLIT_MB) * 1024 * 1024);
+        return super.getSplits(job);
+    }
+
+    @Override
+    public RecordReader<FrameKey, BytesWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
+            throws IOException {
+        return new CombineFileRecordReader<>((CombineFileSplit) split, context, ClipRecordReader.class);
+    }
+
+    // Reads the video at one index of a combined split, created by CombineFileRecordReader
+    public static class ClipRecordReader extends RecordReader<FrameKey, BytesWritable> {
+
+        private final FileSplit clip;
+        private final VideoRecordReader reader = new VideoRecordReader();
+
+        public ClipRecordReader(CombineFileSplit split, TaskAttemptContext context, Integer index)
+                throws IOException {
+            clip = new FileSplit(split.getPath(index), split.getOffset(index), split.getLength(index),
+                    split.getLocations());
+        }
+
+        @Override
+        public void initialize(InputSplit split, TaskAttemptContext context) throws IOException, InterruptedException {
+            reader.initialize(clip, context);
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException, InterruptedException {
+            return reader.nextKeyValue();
+        }
+
+        @Override
+        public FrameKey getCurrentKey() throws IOException, InterruptedException {
+            return reader.getCurrentKey();
+        }
+
+        @Override
+        public BytesWritable getCurrentValue() throws IOException, InterruptedException {
+            return reader.getCurrentValue();
+        }
+
+        @Override
+        public float getProgress() throws IOException, InterruptedException {
+            return reader.getProgress();
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package cdle.opencv;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileChecksum;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MD5Hash;
+
+// Hex digests identifying file contents, used to tell whether cached results still apply
+public class ContentHash {
+
+    private static final int SAMPLE_LENGTH = 1 << 20;
+
+    /* Videos and model files: the file system checksum when there is one (HDFS keeps block
+       CRCs, so this reads no data), otherwise the length with the first and last MiB. */
+    public static String ofFile(FileSystem fs, Path path) throws IOException {
+        FileChecksum checksum = fs.getFileChecksum(path);
+        if (checksum != null) {
+            return MD5Hash.digest(checksum.getBytes()).toString();
+        }
+
+        FileStatus status = fs.getFileStatus(path);
+        MessageDigest digest = md5();
+        digest.update(Long.toString(status.getLen()).getBytes("UTF-8"));
+        byte[] buffer = new byte[SAMPLE_LENGTH];
+        try (FSDataInputStream in = fs.open(path)) {
+            update(digest, in, buffer, 0, Math.min(SAMPLE_LENGTH, status.getLen()));
+            if (status.getLen() > SAMPLE_LENGTH) {
+                long tailStart = Math.max(SAMPLE_LENGTH, status.getLen() - SAMPLE_LENGTH);
+                update(digest, in, buffer, tailStart, status.getLen() - tailStart);
+            }
+        }
+        return new MD5Hash(digest.digest()).toString();
+    }
+
+    public static MessageDigest md5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void update(MessageDigest digest, FSDataInputStream in, byte[] buffer, long position, long length)
+            throws IOException {
+        in.seek(position);
+        in.readFully(buffer, 0, (int) length);
+        digest.update(buffer, 0, (int) length);
+    }
+}
@@ -0,0 +1,80 @@
+package cdle.opencv;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.opencv.core.Mat;
+
+/* Value used with frames.codec=none: hands the decoded frame to a mapper running in the
+   same task, without encoding it. The raw-bgr payload is only built if something reads
+   the bytes (a frame dump, or the value being serialized). */
+public class DecodedFrameWritable extends BytesWritable {
+
+    private final FrameCodec rawCodec;
+    private Mat frame;
+    private boolean encoded = true;
+
+    public DecodedFrameWritable() {
+        try {
+            rawCodec = new FrameCodec("raw-bgr", 1.0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public void setFrame(Mat frame) {
+        this.frame = frame;
+        this.encoded = false;
+    }
+
+    // The frame is owned by the record reader and overwritten by the next record
+    public Mat getFrame() {
+        return frame;
+    }
+
+    private void ensureEncoded() {
+        if (encoded) {
+            return;
+        }
+        encoded = true;
+        try {
+            rawCodec.encode(frame, this);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public byte[] getBytes() {
+        ensureEncoded();
+        return super.getBytes();
+    }
+
+    @Override
+    public int getLength() {
+        ensureEncoded();
+        return super.getLength();
+    }
+
+    @Override
+    public byte[] copyBytes() {
+        ensureEncoded();
+        return super.copyBytes();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        ensureEncoded();
+        super.write(out);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        frame = null;
+        encoded = true;
+    }
+}
@@ -0,0 +1,174 @@
+package cdle.opencv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.Range;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+/* Frame payload stored in the BytesWritable values (frames.codec):
+     jpg, png           -> encoded image, decoded with imdecode
+     raw-bgr            -> pixel buffer followed by a rows/cols/type trailer
+     raw-bgr-downscaled -> same as raw-bgr, resized by frames.downscale.factor
+     none               -> decoded Mat handed over in a DecodedFrameWritable (fused pipeline)
+   Raw payloads skip the encode/decode round trip and rely on SequenceFile block
+   compression instead. The trailer sits after the pixels so the Mat can be copied
+   straight into the value's backing array. */
+public class FrameCodec {
+
+    private static final int TRAILER_LENGTH = 12;
+
+    private final String name;
+    private final double downscaleFactor;
+
+    // Scratch Mats, allocated on first use so the job client can inspect a codec without OpenCV loaded
+    private MatOfByte encoded;
+    private Mat resized;
+
+    public FrameCodec(String name, double downscaleFactor) throws IOException {
+        switch (name) {
+            case "jpg":
+            case "png":
+            case "raw-bgr":
+            case "raw-bgr-downscaled":
+            case "none":
+                break;
+            default:
+                throw new IOException("Unknown frames.codec: " + name);
+        }
+        this.name = name;
+        this.downscaleFactor = downscaleFactor;
+    }
+
+    public static FrameCodec fromConfiguration(Configuration conf) throws IOException {
+        return new FrameCodec(conf.get("frames.codec", "jpg"), conf.getDouble("frames.downscale.factor", 0.5));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Whether the payload bytes are raw pixels rather than an encoded image
+    public boolean isRaw() {
+        return !name.equals("jpg") && !name.equals("png");
+    }
+
+    public BytesWritable createValue() {
+        return name.equals("none") ? new DecodedFrameWritable() : new BytesWritable();
+    }
+
+    public void encode(Mat frame, BytesWritable value) throws IOException {
+        if (name.equals("none")) {
+            ((DecodedFrameWritable) value).setFrame(frame);
+            return;
+        }
+        if (!isRaw()) {
+            if (encoded == null) {
+                encoded = new MatOfByte();
+            }
+            if (!Imgcodecs.imencode("." + name, frame, encoded)) {
+                throw new IOException("Failed to encode frame to " + name);
+            }
+            byte[] frameBytes = encoded.toArray();
+            value.set(frameBytes, 0, frameBytes.length);
+            return;
+        }
+
+        Mat pixels = frame;
+        if (name.equals("raw-bgr-downscaled")) {
+            if (resized == null) {
+                resized = new Mat();
+            }
+            Imgproc.resize(frame, resized, new Size(), downscaleFactor, downscaleFactor, Imgproc.INTER_AREA);
+            pixels = resized;
+        }
+        if (pixels.depth() != CvType.CV_8U) {
+            throw new IOException("Raw frames must be 8 bit, got type " + CvType.typeToString(pixels.type()));
+        }
+
+        int pixelLength = (int) (pixels.total() * pixels.elemSize());
+        int length = pixelLength + TRAILER_LENGTH;
+
+        // Exact capacity, so Mat.get fills the backing array without an intermediate copy
+        value.setCapacity(length);
+        value.setSize(length);
+        byte[] bytes = value.getBytes();
+        pixels.get(0, 0, bytes);
+        ByteBuffer.wrap(bytes, pixelLength, TRAILER_LENGTH)
+                .putInt(pixels.rows())
+                .putInt(pixels.cols())
+                .putInt(pixels.type());
+    }
+
+    // Returns the decoded frame, or an empty Mat if the payload is not a valid image; the caller releases it
+    public static Mat decode(BytesWritable value) {
+        try (MatArena arena = new MatArena(null)) {
+            return arena.detach(decode(value, arena));
+        }
+    }
+
+    /* Decodes into Mats owned by the arena, and raw frames into Mats of its pool. Only the
+       value's first getLength() bytes are read, never the padding of its backing array. */
+    public static Mat decode(BytesWritable value, MatArena arena) {
+        if (value instanceof DecodedFrameWritable && ((DecodedFrameWritable) value).getFrame() != null) {
+            // New header over the reader's pixels, no copy
+            return arena.track(new Mat(((DecodedFrameWritable) value).getFrame(), Range.all()));
+        }
+
+        byte[] bytes = value.getBytes();
+        int length = value.getLength();
+
+        if (isRawPayload(bytes, length)) {
+            ByteBuffer trailer = ByteBuffer.wrap(bytes, length - TRAILER_LENGTH, TRAILER_LENGTH);
+            int rows = trailer.getInt();
+            int cols = trailer.getInt();
+            int type = trailer.getInt();
+
+            Mat image = arena.take(rows, cols, type);
+            image.put(0, 0, bytes, 0, length - TRAILER_LENGTH);
+            return image;
+        }
+
+        if (!isJpeg(bytes, length) && !isPng(bytes, length)) {
+            return arena.track(new Mat());
+        }
+
+        // Encoded payloads are copied once, into a direct buffer imdecode reads in place
+        Mat encoded = arena.encodedPayload(bytes, length);
+        Mat image = Imgcodecs.imdecode(encoded, Imgcodecs.IMREAD_UNCHANGED);
+        arena.release(encoded);
+        return arena.track(image);
+    }
+
+    /* The trailer is checked first, pixels can start with the JPEG or PNG magic bytes. The
+       last bytes of a JPEG (FFD9 end marker) or a PNG (IEND CRC) never read as an 8 bit type,
+       so an encoded image is not mistaken for raw pixels; the magic is only sniffed after. */
+    private static boolean isRawPayload(byte[] bytes, int length) {
+        if (length < TRAILER_LENGTH) {
+            return false;
+        }
+        ByteBuffer trailer = ByteBuffer.wrap(bytes, length - TRAILER_LENGTH, TRAILER_LENGTH);
+        int rows = trailer.getInt();
+        int cols = trailer.getInt();
+        int type = trailer.getInt();
+        if (rows <= 0 || cols <= 0 || CvType.depth(type) != CvType.CV_8U) {
+            return false;
+        }
+        return (long) rows * cols * CvType.channels(type) == length - TRAILER_LENGTH;
+    }
+
+    private static boolean isJpeg(byte[] bytes, int length) {
+        return length >= 2 && (bytes[0] & 0xFF) == 0xFF && (bytes[1] & 0xFF) == 0xD8;
+    }
+
+    private static boolean isPng(byte[] bytes, int length) {
+        return length >= 4 && (bytes[0] & 0xFF) == 0x89 && bytes[1] == 'P' && bytes[2] == 'N' && bytes[3] == 'G';
+    }
+}
@@ -0,0 +1,131 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.Counter;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/* Writes extracted frames to a local directory on a background thread, reusing the
+   payload already encoded for the SequenceFile. Raw payloads are encoded to JPEG by
+   the writer thread. The queue is bounded, so a slow disk blocks the record reader;
+   the time spent waiting is reported through the backpressure counters. */
+public class FrameDumpWriter {
+
+    private static final Frame END = new Frame(null, null);
+
+    private final String outputDir;
+    private final String extension;
+    private final boolean encodeOnWrite;
+    private final BlockingQueue<Frame> queue;
+    private final Thread writerThread;
+    private final Counter queueFullWaits;
+    private final Counter waitMillis;
+
+    private volatile IOException failure;
+
+    private static class Frame {
+        final String fileName;
+        final byte[] bytes;
+
+        Frame(String fileName, byte[] bytes) {
+            this.fileName = fileName;
+            this.bytes = bytes;
+        }
+    }
+
+    public FrameDumpWriter(String outputDir, FrameCodec codec, int queueSize, Counter queueFullWaits, Counter waitMillis)
+            throws IOException {
+        File dir = new File(outputDir);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Failed to create output directory: " + outputDir);
+        }
+        this.outputDir = outputDir;
+        this.extension = codec.isRaw() ? "jpg" : codec.getName();
+        this.encodeOnWrite = codec.isRaw();
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.queueFullWaits = queueFullWaits;
+        this.waitMillis = waitMillis;
+
+        this.writerThread = new Thread(this::writeLoop, "frame-dump-writer");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void write(String videoId, int frameIndex, BytesWritable payload) throws IOException, InterruptedException {
+        checkFailure();
+
+        // Prefixed with the video, the frame indexes of different videos overlap
+        String fileName = String.format("%s/%s_frame_%d.%s", outputDir, videoId, frameIndex, extension);
+        Frame frame = new Frame(fileName, payload.copyBytes());
+
+        if (!queue.offer(frame)) {
+            queueFullWaits.increment(1);
+            long start = System.nanoTime();
+            put(frame);
+            waitMillis.increment(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+    }
+
+    // Waits for the queued frames to be written
+    public void close() throws IOException, InterruptedException {
+        put(END);
+        writerThread.join();
+        checkFailure();
+    }
+
+    // Blocks while the queue is full, but fails instead once the writer thread has stopped
+    private void put(Frame frame) throws IOException, InterruptedException {
+        while (!queue.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+            if (!writerThread.isAlive()) {
+                throw new IOException("Frame dump writer stopped");
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Stops at the first failure, which write and close then throw
+    private void writeLoop() {
+        try {
+            for (Frame frame = queue.take(); frame != END; frame = queue.take()) {
+                writeFrame(frame);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure = e;
+        } catch (Throwable t) {
+            // e.g. a CvException from decode or imwrite
+            failure = new IOException("Failed to write frame dump", t);
+        }
+    }
+
+    private void writeFrame(Frame frame) throws IOException {
+        if (!encodeOnWrite) {
+            Files.write(Paths.get(frame.fileName), frame.bytes);
+            return;
+        }
+
+        Mat image = FrameCodec.decode(new BytesWritable(frame.bytes));
+        try {
+            if (!Imgcodecs.imwrite(frame.fileName, image)) {
+                throw new IOException("Failed to save frame to file: " + frame.fileName);
+            }
+        } finally {
+            image.release();
+        }
+    }
+}
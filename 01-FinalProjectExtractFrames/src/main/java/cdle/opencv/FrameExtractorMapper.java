@@ -4,11 +4,10 @@ import java.io.IOException;
 import java.net.URI;
 
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 
-public class FrameExtractorMapper extends Mapper<LongWritable, BytesWritable, LongWritable, BytesWritable> {
+public class FrameExtractorMapper extends Mapper<FrameKey, BytesWritable, FrameKey, BytesWritable> {
 
     static {
         System.out.println( "static in FrameExtractorMapper..." );
@@ -29,7 +28,7 @@ public class FrameExtractorMapper extends Mapper<LongWritable, BytesWritable, Lo
     }
 
     @Override
-    public void map(LongWritable key, BytesWritable value, Context context) throws IOException, InterruptedException {
+    public void map(FrameKey key, BytesWritable value, Context context) throws IOException, InterruptedException {
         //String framePath = value.toString();
 
         // Log or process frame (here, we simply log the frame path)
@@ -0,0 +1,177 @@
+package cdle.opencv;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/* Key of an extracted frame: the video it comes from (file name and content hash, see
+   ContentHash), the index of the sample within that video and its presentation time.
+   Keys sort by video, then time, so a shuffle on them puts each video's frames in
+   playback order. */
+public class FrameKey implements WritableComparable<FrameKey> {
+
+    static {
+        WritableComparator.define(FrameKey.class, new Comparator());
+    }
+
+    private String videoId = "";
+    private String videoHash = "";
+    private long frameIndex;
+    private long timestampMs;
+
+    public FrameKey() {
+    }
+
+    public FrameKey(String videoId, String videoHash, long frameIndex, long timestampMs) {
+        set(videoId, videoHash, frameIndex, timestampMs);
+    }
+
+    public void set(String videoId, String videoHash, long frameIndex, long timestampMs) {
+        this.videoId = videoId;
+        this.videoHash = videoHash;
+        this.frameIndex = frameIndex;
+        this.timestampMs = timestampMs;
+    }
+
+    public String getVideoId() {
+        return videoId;
+    }
+
+    public String getVideoHash() {
+        return videoHash;
+    }
+
+    // Sample index, unique within the video and consecutive for consecutive samples
+    public long getFrameIndex() {
+        return frameIndex;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeUTF(videoId);
+        out.writeUTF(videoHash);
+        out.writeLong(frameIndex);
+        out.writeLong(timestampMs);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        videoId = in.readUTF();
+        videoHash = in.readUTF();
+        frameIndex = in.readLong();
+        timestampMs = in.readLong();
+    }
+
+    @Override
+    public int compareTo(FrameKey other) {
+        int cmp = videoId.compareTo(other.videoId);
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = videoHash.compareTo(other.videoHash);
+        if (cmp != 0) {
+            return cmp;
+        }
+        cmp = Long.compare(timestampMs, other.timestampMs);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Long.compare(frameIndex, other.frameIndex);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof FrameKey)) {
+            return false;
+        }
+        FrameKey other = (FrameKey) o;
+        return videoId.equals(other.videoId) && videoHash.equals(other.videoHash) && frameIndex == other.frameIndex && timestampMs == other.timestampMs;
+    }
+
+    @Override
+    public int hashCode() {
+        return videoId.hashCode() * 31 + Long.hashCode(frameIndex);
+    }
+
+    @Override
+    public String toString() {
+        return videoId + "@" + timestampMs + "ms#" + frameIndex;
+    }
+
+    /* Sorts serialized keys like compareTo without deserializing them. The shuffle compares
+       every pair of map outputs, so this keeps the sort from building two keys per compare. */
+    public static class Comparator extends WritableComparator {
+
+        public Comparator() {
+            super(FrameKey.class);
+        }
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int cmp = compareVideos(b1, s1, b2, s2);
+            if (cmp != 0) {
+                return cmp;
+            }
+            // videoId and videoHash are each a 2 byte length and the bytes, then frameIndex and timestampMs
+            int longs1 = skipString(b1, skipString(b1, s1));
+            int longs2 = skipString(b2, skipString(b2, s2));
+            cmp = Long.compare(readLong(b1, longs1 + 8), readLong(b2, longs2 + 8));
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(readLong(b1, longs1), readLong(b2, longs2));
+        }
+
+        /* Orders two serialized keys by video id, then video hash, like compareTo. Same-named
+           videos from different folders differ in their hash, see VideoGroupingComparator. */
+        public static int compareVideos(byte[] b1, int s1, byte[] b2, int s2) {
+            int cmp = compareVideoIds(b1, s1, b2, s2);
+            if (cmp != 0) {
+                return cmp;
+            }
+            // The hash is a string written the same way, right after the id
+            return compareVideoIds(b1, skipString(b1, s1), b2, skipString(b2, s2));
+        }
+
+        // Orders the serialized video ids of two keys like String.compareTo
+        public static int compareVideoIds(byte[] b1, int s1, byte[] b2, int s2) {
+            int n1 = readUnsignedShort(b1, s1);
+            int n2 = readUnsignedShort(b2, s2);
+            if (isAscii(b1, s1 + 2, n1) && isAscii(b2, s2 + 2, n2)) {
+                return compareBytes(b1, s1 + 2, n1, b2, s2 + 2, n2);
+            }
+            // Modified UTF-8 bytes do not sort like the UTF-16 strings outside ASCII, decode those
+            return readString(b1, s1, n1).compareTo(readString(b2, s2, n2));
+        }
+
+        private static int skipString(byte[] b, int s) {
+            return s + 2 + readUnsignedShort(b, s);
+        }
+
+        private static boolean isAscii(byte[] b, int s, int length) {
+            for (int i = s; i < s + length; i++) {
+                if (b[i] < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String readString(byte[] b, int s, int length) {
+            try {
+                return new DataInputStream(new ByteArrayInputStream(b, s, length + 2)).readUTF();
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+}
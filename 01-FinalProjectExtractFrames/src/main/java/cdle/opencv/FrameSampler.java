@@ -0,0 +1,113 @@
+package cdle.opencv;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+/* Adaptive sampling (sampling.adaptive) of one video. The record reader reads every
+   sampling.coarse.stride-th sample of the frames.interval.seconds grid, and the mapper
+   of the same task reports the possession found in each sample it processes. When two
+   neighbouring reported samples disagree, the sample halfway between them is read next,
+   until the change is pinned down to one sample. Stable stretches cost one inference per
+   stride, each change about log2(stride) more.
+
+   The mapper finds the sampler of its task through forTask, so this only works when the
+   mapper runs in the reader's task, as in fused mode. */
+public class FrameSampler {
+
+    private static final Map<TaskAttemptID, FrameSampler> SAMPLERS = new ConcurrentHashMap<>();
+
+    private final String videoId;
+    private final int endSample; // exclusive
+    private final int stride;
+    private int nextCoarse;
+    private boolean lastRead; // the final sample, read even when it is off the coarse grid
+
+    private final BitSet read = new BitSet();
+    private final TreeMap<Integer, Integer> results = new TreeMap<>(); // sample -> reported result
+    private final TreeSet<Integer> refinements = new TreeSet<>(); // samples to read before the next coarse one
+    private long refined;
+
+    public FrameSampler(String videoId, int firstSample, int endSample, int stride) {
+        this.videoId = videoId;
+        this.endSample = endSample;
+        this.stride = Math.max(1, stride);
+        this.nextCoarse = firstSample;
+    }
+
+    // Makes the sampler the one of the task's current video
+    public static void register(TaskAttemptID task, FrameSampler sampler) {
+        SAMPLERS.put(task, sampler);
+    }
+
+    public static void unregister(TaskAttemptID task, FrameSampler sampler) {
+        SAMPLERS.remove(task, sampler);
+    }
+
+    // null unless the task's record reader samples adaptively
+    public static FrameSampler forTask(TaskAttemptID task) {
+        return SAMPLERS.get(task);
+    }
+
+    // Next sample to read, refinements first, or -1 once the video is covered
+    public synchronized int next() {
+        Integer refinement = refinements.pollFirst();
+        if (refinement != null) {
+            read.set(refinement);
+            refined++;
+            return refinement;
+        }
+        while (nextCoarse < endSample && read.get(nextCoarse)) {
+            nextCoarse += stride;
+        }
+        if (nextCoarse < endSample) {
+            read.set(nextCoarse);
+            return nextCoarse;
+        }
+        if (!lastRead && endSample > 0) {
+            lastRead = true;
+            if (!read.get(endSample - 1)) {
+                read.set(endSample - 1);
+                return endSample - 1;
+            }
+        }
+        return -1;
+    }
+
+    // Called by the mapper with the result of a sample, results of other videos are ignored
+    public synchronized void report(String videoId, int sample, int result) {
+        if (!this.videoId.equals(videoId)) {
+            return;
+        }
+        results.put(sample, result);
+        refineBetween(results.lowerEntry(sample), sample, result);
+        refineBetween(results.higherEntry(sample), sample, result);
+    }
+
+    private void refineBetween(Map.Entry<Integer, Integer> neighbour, int sample, int result) {
+        if (neighbour == null || neighbour.getValue() == result) {
+            return;
+        }
+        int from = Math.min(sample, neighbour.getKey());
+        int to = Math.max(sample, neighbour.getKey());
+        int middle = (from + to) >>> 1;
+        // A sample in between that is read but not reported yet refines the gap when it is
+        if (to - from >= 2 && !read.get(middle)) {
+            refinements.add(middle);
+        }
+    }
+
+    // Samples read because of a change, on top of the coarse ones
+    public synchronized long getRefined() {
+        return refined;
+    }
+
+    public synchronized float getProgress(int firstSample) {
+        int samples = endSample - firstSample;
+        return samples <= 0 ? 0f : Math.min(1f, (float) (nextCoarse - firstSample) / samples);
+    }
+}
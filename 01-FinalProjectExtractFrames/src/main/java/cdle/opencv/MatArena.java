@@ -0,0 +1,133 @@
+package cdle.opencv;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/* Owns the native Mats of one scope, such as a batch of frames: every tracked Mat is
+   released when the arena closes, or handed back to the MatPool it was taken from, so
+   native memory does not wait for the garbage collector to finalize the Mats.
+
+   The native bytes held by tracked Mats, pooled Mats and pool buffers are summed in a
+   gauge for the whole JVM, see getNativeBytes and getPeakNativeBytes. */
+public class MatArena implements AutoCloseable {
+
+    private static final AtomicLong NATIVE_BYTES = new AtomicLong();
+    private static final AtomicLong PEAK_NATIVE_BYTES = new AtomicLong();
+
+    private static class Entry {
+        final Mat mat;
+        final long bytes;
+        final boolean pooled;
+
+        Entry(Mat mat, long bytes, boolean pooled) {
+            this.mat = mat;
+            this.bytes = bytes;
+            this.pooled = pooled;
+        }
+    }
+
+    private final MatPool pool; // null to always release
+    private final List<Entry> entries = new ArrayList<>();
+
+    public MatArena(MatPool pool) {
+        this.pool = pool;
+    }
+
+    // Tracks a filled Mat, submatrices are counted by their parent
+    public <T extends Mat> T track(T mat) {
+        return track(mat, mat.isSubmatrix() ? 0 : mat.total() * mat.elemSize(), false);
+    }
+
+    // Mat of the given shape, from the pool when there is one, tracked by the arena
+    public Mat take(int rows, int cols, int type) {
+        if (pool == null) {
+            return track(new Mat(rows, cols, type));
+        }
+        Mat mat = pool.take(rows, cols, type);
+        return track(mat, mat.total() * mat.elemSize(), true);
+    }
+
+    // 1 x length byte Mat holding the first length bytes, over the pool's direct buffer when there is one
+    public Mat encodedPayload(byte[] bytes, int length) {
+        if (pool == null) {
+            Mat mat = track(new Mat(1, length, CvType.CV_8U));
+            mat.put(0, 0, bytes, 0, length);
+            return mat;
+        }
+        // The buffer is counted by the pool, the header owns no memory
+        return track(new Mat(1, length, CvType.CV_8U, pool.payload(bytes, length)), 0, false);
+    }
+
+    private <T extends Mat> T track(T mat, long bytes, boolean pooled) {
+        account(bytes);
+        entries.add(new Entry(mat, bytes, pooled));
+        return mat;
+    }
+
+    // Releases one tracked Mat before the arena closes
+    public void release(Mat mat) {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.mat == mat) {
+                it.remove();
+                free(entry);
+                return;
+            }
+        }
+        mat.release();
+    }
+
+    // Stops tracking a Mat, which the caller now releases
+    public <T extends Mat> T detach(T mat) {
+        Iterator<Entry> it = entries.iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.mat == mat) {
+                it.remove();
+                account(-entry.bytes);
+                break;
+            }
+        }
+        return mat;
+    }
+
+    @Override
+    public void close() {
+        for (Entry entry : entries) {
+            free(entry);
+        }
+        entries.clear();
+    }
+
+    private void free(Entry entry) {
+        account(-entry.bytes);
+        if (entry.pooled) {
+            pool.give(entry.mat);
+        } else {
+            entry.mat.release();
+        }
+    }
+
+    static void account(long bytes) {
+        long now = NATIVE_BYTES.addAndGet(bytes);
+        long peak;
+        while (now > (peak = PEAK_NATIVE_BYTES.get()) && !PEAK_NATIVE_BYTES.compareAndSet(peak, now)) {
+            // another thread raised the peak, retry
+        }
+    }
+
+    // Native bytes currently held by tracked and pooled frames in this JVM
+    public static long getNativeBytes() {
+        return NATIVE_BYTES.get();
+    }
+
+    public static long getPeakNativeBytes() {
+        return PEAK_NATIVE_BYTES.get();
+    }
+}
@@ -0,0 +1,82 @@
+package cdle.opencv;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.opencv.core.Mat;
+
+/* Native memory reused from one frame to the next by a task: a direct buffer that encoded
+   payloads are copied into for imdecode, and up to capacity Mats of raw frames given back
+   by closed MatArenas. Meant for the thread that decodes the frames, it is not thread safe. */
+public class MatPool {
+
+    private final int capacity;
+    private final Deque<Mat> free = new ArrayDeque<>();
+    private ByteBuffer payload;
+    private long reuses;
+
+    public MatPool(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // Direct buffer holding exactly the first length bytes, overwritten by the next call
+    ByteBuffer payload(byte[] bytes, int length) {
+        if (payload == null || payload.capacity() < length) {
+            // Grown in powers of two, so payloads of slightly varying size settle on one buffer
+            int size = Integer.highestOneBit(Math.max(length, 1));
+            if (size < length) {
+                size <<= 1;
+            }
+            if (payload != null) {
+                MatArena.account(-payload.capacity());
+            }
+            payload = ByteBuffer.allocateDirect(size);
+            MatArena.account(size);
+        }
+        payload.clear();
+        payload.put(bytes, 0, length);
+        payload.flip();
+        return payload;
+    }
+
+    Mat take(int rows, int cols, int type) {
+        Mat mat = free.poll();
+        if (mat == null) {
+            return new Mat(rows, cols, type);
+        }
+        MatArena.account(-mat.total() * mat.elemSize());
+        if (mat.rows() == rows && mat.cols() == cols && mat.type() == type) {
+            reuses++;
+        }
+        mat.create(rows, cols, type); // no-op for the same shape
+        return mat;
+    }
+
+    void give(Mat mat) {
+        if (free.size() >= capacity) {
+            mat.release();
+            return;
+        }
+        MatArena.account(mat.total() * mat.elemSize());
+        free.push(mat);
+    }
+
+    // Frames that reused a pooled Mat of the same shape
+    public long getReuses() {
+        return reuses;
+    }
+
+    public void release() {
+        for (Mat mat : free) {
+            MatArena.account(-mat.total() * mat.elemSize());
+            mat.release();
+        }
+        free.clear();
+        if (payload != null) {
+            // The direct buffer itself is freed when it is collected
+            MatArena.account(-payload.capacity());
+            payload = null;
+        }
+    }
+}
@@ -3,7 +3,7 @@ package cdle.opencv;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 import org.apache.hadoop.util.Tool;
@@ -25,19 +25,28 @@ public class VideoFrameExtractorJob extends Configured implements Tool {
         // Load the native OpenCV library
 
         // Add the input path
-        job.setInputFormatClass(VideoInputFormat.class);
+        job.setInputFormatClass(VideoInputFormat.fromConfiguration(job.getConfiguration()));
         VideoInputFormat.addInputPath(job, new Path(args[0]));
 
         // Configure mapper
         job.setMapperClass(FrameExtractorMapper.class);
-        job.setMapOutputKeyClass(LongWritable.class);
+        job.setMapOutputKeyClass(FrameKey.class);
         job.setMapOutputValueClass(BytesWritable.class);
 
+        // Frames are written as they are read, there is nothing to shuffle
+        job.setNumReduceTasks(0);
+
         // Configure output format and output path
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
         SequenceFileOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        job.setOutputKeyClass(LongWritable.class);
+        // Raw frames are not compressed by the codec, let the SequenceFile compress them in blocks
+        if (FrameCodec.fromConfiguration(job.getConfiguration()).isRaw()) {
+            SequenceFileOutputFormat.setCompressOutput(job, true);
+            SequenceFileOutputFormat.setOutputCompressionType(job, CompressionType.BLOCK);
+        }
+
+        job.setOutputKeyClass(FrameKey.class);
         job.setOutputValueClass(BytesWritable.class);
         // Add the OpenCV dependency (optional, used for class loading)
         //job.addFileToClassPath(new Path("file:///home/usermr/examples/Projects/08-Project/01-FinalProjectExtractFrames/target/libs/opencv-4.9.0-0.jar"));
@@ -0,0 +1,137 @@
+package cdle.opencv;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+/* An open video and the decoder's position in it: reads frames by index, seeking or
+   grabbing forward over the frames in between, and gives their presentation time. Used by
+   VideoRecordReader for the jobs and by LivePossession for segments as they arrive. */
+public class VideoFrameSource implements Closeable {
+
+    static {
+        Utils.loadNative();
+    }
+
+    private final VideoCapture videoCapture;
+    private final int totalFrames;
+    private final double fps;
+    private final boolean positionAfterFrame; // backend reports the time of the next frame
+    private final Mat frame = new Mat();
+
+    // Job counters, null outside a task; the totals are also kept here
+    private final Counter framesDecodedCounter;
+    private final Counter seeksCounter;
+    private long framesDecoded;
+    private long seeks;
+
+    private boolean seekEachFrame;
+    private int decoderPosition = 0; // index of the frame the next grab() returns
+
+    public VideoFrameSource(String location) throws IOException {
+        this(location, null, null);
+    }
+
+    public VideoFrameSource(String location, Counter framesDecoded, Counter seeks) throws IOException {
+        videoCapture = new VideoCapture(location);
+        if (!videoCapture.isOpened()) {
+            throw new IOException("Failed to open video: " + location);
+        }
+        this.totalFrames = (int) videoCapture.get(Videoio.CAP_PROP_FRAME_COUNT);
+        this.fps = videoCapture.get(Videoio.CAP_PROP_FPS);
+        // OpenCV's built-in MJPEG reader reports the position after the grabbed frame, FFmpeg the grabbed frame's time
+        this.positionAfterFrame = "CV_MJPEG".equals(videoCapture.getBackendName());
+        this.framesDecodedCounter = framesDecoded;
+        this.seeksCounter = seeks;
+    }
+
+    // Frame count reported by the container, which some files get wrong
+    public int getTotalFrames() {
+        return totalFrames;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public long getFramesDecoded() {
+        return framesDecoded;
+    }
+
+    public long getSeeks() {
+        return seeks;
+    }
+
+    // Seek to every frame read, instead of grabbing forward to it
+    public void setSeekEachFrame(boolean seekEachFrame) {
+        this.seekEachFrame = seekEachFrame;
+    }
+
+    // Moves the decoder to a frame without reading it
+    public void seek(int frameIndex) {
+        videoCapture.set(Videoio.CAP_PROP_POS_FRAMES, frameIndex);
+        decoderPosition = frameIndex;
+        seeks++;
+        if (seeksCounter != null) {
+            seeksCounter.increment(1);
+        }
+    }
+
+    // Positions the decoder on the given frame, either by seeking or by grabbing forward, and decodes it into getFrame()
+    public boolean read(int frameIndex) {
+        if (seekEachFrame || frameIndex < decoderPosition) {
+            seek(frameIndex);
+        }
+
+        // Skipped frames are only grabbed, never converted to a Mat
+        while (decoderPosition < frameIndex) {
+            if (!videoCapture.grab()) {
+                return false;
+            }
+            decoderPosition++;
+            decoded();
+        }
+
+        if (!videoCapture.grab()) {
+            return false;
+        }
+        decoderPosition++;
+        decoded();
+
+        return videoCapture.retrieve(frame) && !frame.empty();
+    }
+
+    private void decoded() {
+        framesDecoded++;
+        if (framesDecodedCounter != null) {
+            framesDecodedCounter.increment(1);
+        }
+    }
+
+    // The frame last read, overwritten by the next read
+    public Mat getFrame() {
+        return frame;
+    }
+
+    // Presentation time of the frame just read, computed from the frame rate when the backend does not report it
+    public long timestampMs(int frameIndex) {
+        double positionMs = videoCapture.get(Videoio.CAP_PROP_POS_MSEC);
+        if (positionAfterFrame && fps > 0) {
+            positionMs -= 1000.0 / fps;
+        }
+        if (positionMs > 0 || (positionMs == 0 && frameIndex == 0)) {
+            return Math.round(positionMs);
+        }
+        return fps > 0 ? Math.round(frameIndex * 1000.0 / fps) : frameIndex;
+    }
+
+    @Override
+    public void close() {
+        videoCapture.release();
+        frame.release();
+    }
+}
@@ -1,26 +1,130 @@
 package cdle.opencv;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
 
-public class VideoInputFormat extends FileInputFormat<LongWritable, BytesWritable> {
+public class VideoInputFormat extends FileInputFormat<FrameKey, BytesWritable> {
+
+    static {
+        Utils.loadNative();
+    }
 
     @Override
     protected boolean isSplitable(JobContext context, Path filename) {
-        return false; // Videos should not be split
+        // Videos are only split on time ranges when frames.split.seconds is set
+        return context.getConfiguration().getFloat("frames.split.seconds", 0f) > 0f;
+    }
+
+    @Override
+    public List<InputSplit> getSplits(JobContext job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        List<InputSplit> splits = new ArrayList<>();
+
+        for (FileStatus file : listStatus(job)) {
+            if (file.getLen() == 0 || !isSplitable(job, file.getPath())) {
+                splits.add(wholeVideoSplit(conf, file));
+                continue;
+            }
+            splits.addAll(timeRangeSplits(conf, file));
+        }
+        return splits;
     }
 
     @Override
-    public RecordReader<LongWritable, BytesWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
+    public RecordReader<FrameKey, BytesWritable> createRecordReader(InputSplit split, TaskAttemptContext context)
             throws IOException, InterruptedException {
         return new VideoRecordReader();
     }
+
+    // Input format reading the videos: packed several to a split when frames.combine.split.mb is set
+    public static Class<? extends FileInputFormat<FrameKey, BytesWritable>> fromConfiguration(Configuration conf) {
+        return conf.getLong("frames.combine.split.mb", CombineVideoInputFormat.DEFAULT_SPLIT_MB) > 0
+                ? CombineVideoInputFormat.class : VideoInputFormat.class;
+    }
+
+    // Frames to skip between two samples, shared with the record reader so splits line up with its sampling
+    static int frameStep(double fps, float intervalSeconds) {
+        return Math.max(1, (int) ((int) fps * intervalSeconds));
+    }
+
+    // OpenCV builds without FFmpeg cannot open file: URIs, so local videos are opened by plain path
+    static String videoLocation(Path path) {
+        return "file".equals(path.toUri().getScheme()) ? path.toUri().getPath() : path.toString();
+    }
+
+    private FileSplit wholeVideoSplit(Configuration conf, FileStatus file) throws IOException {
+        return new FileSplit(file.getPath(), 0, file.getLen(), hostsFor(conf, file, 0, file.getLen()));
+    }
+
+    /* One split per frames.split.seconds of video. Split boundaries fall on the sampling grid,
+       so every split emits the same global sample indices a single reader would have emitted.
+       The reader seeks to the first frame of its range and the decoder resumes from the
+       preceding keyframe, so ranges do not need to be keyframe aligned. */
+    private List<InputSplit> timeRangeSplits(Configuration conf, FileStatus file) throws IOException {
+        Path path = file.getPath();
+        List<InputSplit> splits = new ArrayList<>();
+
+        VideoCapture videoCapture = new VideoCapture(videoLocation(path));
+        int totalFrames;
+        double fps;
+        try {
+            if (!videoCapture.isOpened()) {
+                System.err.printf("[%s] Could not open %s to compute splits, using a single split.\n",
+                        VideoInputFormat.class.getName(), path);
+                splits.add(wholeVideoSplit(conf, file));
+                return splits;
+            }
+            totalFrames = (int) videoCapture.get(Videoio.CAP_PROP_FRAME_COUNT);
+            fps = videoCapture.get(Videoio.CAP_PROP_FPS);
+        } finally {
+            videoCapture.release();
+        }
+
+        int frameStep = frameStep(fps, conf.getFloat("frames.interval.seconds", 1.0f));
+        int maxFrames = conf.getInt("frames.max.count", 600);
+        int totalSamples = Math.min((totalFrames + frameStep - 1) / frameStep, maxFrames);
+        if (totalSamples <= 0) {
+            splits.add(wholeVideoSplit(conf, file));
+            return splits;
+        }
+
+        float splitSeconds = conf.getFloat("frames.split.seconds", 0f);
+        int samplesPerSplit = Math.max(1, (int) (fps * splitSeconds / frameStep));
+
+        for (int first = 0; first < totalSamples; first += samplesPerSplit) {
+            int end = Math.min(totalSamples, first + samplesPerSplit);
+
+            // Byte range is an estimate, only used for locality
+            long start = file.getLen() * first / totalSamples;
+            long length = file.getLen() * end / totalSamples - start;
+
+            splits.add(new VideoSplit(path, start, length, hostsFor(conf, file, start, length), first, end));
+        }
+        return splits;
+    }
+
+    private String[] hostsFor(Configuration conf, FileStatus file, long start, long length) throws IOException {
+        FileSystem fs = file.getPath().getFileSystem(conf);
+        BlockLocation[] blocks = fs.getFileBlockLocations(file, start, Math.max(1, length));
+        if (blocks == null || blocks.length == 0) {
+            return new String[0];
+        }
+        return blocks[0].getHosts();
+    }
 }
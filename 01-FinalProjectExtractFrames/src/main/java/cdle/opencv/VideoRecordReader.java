@@ -1,41 +1,51 @@
 package cdle.opencv;
 
-import java.io.File;
 import java.io.IOException;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.BytesWritable;
-import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Counter;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
 import org.apache.hadoop.mapreduce.lib.input.FileSplit;
-import org.opencv.core.Mat;
-import org.opencv.core.MatOfByte;
-import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.videoio.VideoCapture;
-import org.opencv.videoio.Videoio;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-/* key -> frame index
-   value -> frame data as bytes */
-public class VideoRecordReader extends RecordReader<LongWritable, BytesWritable> {
+/* key -> video, sample index and timestamp, see FrameKey
+   value -> frame data as bytes, see FrameCodec
+   Decoding itself is done by a VideoFrameSource, this picks the samples of the split. */
+public class VideoRecordReader extends RecordReader<FrameKey, BytesWritable> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(VideoRecordReader.class);
 
     static {
         Utils.loadNative();
     }
 
-    private LongWritable key = new LongWritable();
-    private BytesWritable value = new BytesWritable();
+    private FrameKey key = new FrameKey();
+    private BytesWritable value;
 
     private int currentFrameIndex = 0;
     private int frameStep;
     private int totalFrames;
-    private int currentExtractedFrameCount = 0;
-    private int extractedFrameCount = 0; // Tracks the number of extracted frames
-    private VideoCapture videoCapture;
-    private int maxFramesToExtract;
-    private String outputDir;
+    private String videoId;
+    private String videoHash;
+    private int currentExtractedFrameCount = 0; // Global sample index, unique across splits of a video
+    private int firstSample;
+    private int endSample; // exclusive
+    private VideoFrameSource source;
+    private FrameCodec codec;
+    private FrameDumpWriter dumpWriter; // null unless frames.dump.enabled
+
+    // Adaptive sampling, null unless sampling.adaptive
+    private FrameSampler sampler;
+    private TaskAttemptID taskAttemptId;
+
+    private Counter framesEmitted;
+    private Counter refinedSamples;
 
     @Override
     public void initialize(InputSplit split, TaskAttemptContext context) throws IOException {
@@ -43,32 +53,90 @@ public class VideoRecordReader extends RecordReader<LongWritable, BytesWritable>
         Configuration conf = context.getConfiguration();
 
         // Load video
-        videoCapture = new VideoCapture(videoPath.toString());
-        if (!videoCapture.isOpened()) {
-            throw new IOException("Failed to open video: " + videoPath.toString());
-        }
-        this.maxFramesToExtract = conf.getInt("frames.max.count", 600);
+        source = new VideoFrameSource(VideoInputFormat.videoLocation(videoPath),
+                context.getCounter("VideoExtraction", "FramesDecoded"), context.getCounter("VideoExtraction", "Seeks"));
+        int maxFramesToExtract = conf.getInt("frames.max.count", 600);
+
+        totalFrames = source.getTotalFrames();
+        videoId = videoPath.getName();
+        // Only the result cache reads the hash, and it costs a checksum call or a read of the video
+        videoHash = conf.getBoolean("frames.content.hash", !conf.get("cache.dir", "").isEmpty())
+                ? ContentHash.ofFile(videoPath.getFileSystem(conf), videoPath) : "";
 
-        totalFrames = (int) videoCapture.get(Videoio.CAP_PROP_FRAME_COUNT);
-        int fps = (int) videoCapture.get(Videoio.CAP_PROP_FPS);
         float interval = conf.getFloat("frames.interval.seconds", 1.0f);
 
-        frameStep = Math.max(1, (int) (fps * interval)); // calculate frames to skip based on interval
+        frameStep = VideoInputFormat.frameStep(source.getFps(), interval); // calculate frames to skip based on interval
+
+        // A VideoSplit covers a range of samples, a plain FileSplit the whole video
+        if (split instanceof VideoSplit) {
+            firstSample = ((VideoSplit) split).getFirstSample();
+            endSample = Math.min(((VideoSplit) split).getEndSample(), maxFramesToExtract);
+        } else {
+            firstSample = 0;
+            endSample = maxFramesToExtract;
+        }
+        currentExtractedFrameCount = firstSample;
+        currentFrameIndex = firstSample * frameStep;
+
+        /* Seeking makes the decoder restart from the previous keyframe, so for small steps it is
+           cheaper to decode sequentially and grab() over the skipped frames. Seeking wins once
+           the step is about a GOP long. */
+        String decodeMode = conf.get("frames.decode.mode", "auto");
+        switch (decodeMode) {
+            case "seek":
+                source.setSeekEachFrame(true);
+                break;
+            case "sequential":
+                source.setSeekEachFrame(false);
+                break;
+            case "auto":
+                source.setSeekEachFrame(frameStep >= conf.getInt("frames.seek.min.step", 250));
+                break;
+            default:
+                throw new IOException("Unknown frames.decode.mode: " + decodeMode);
+        }
 
-        // Get the output directory from the configuration
-        outputDir = conf.get("frames.output.dir", "/tmp/frames");
-        File dir = new File(outputDir);
-        if (!dir.exists() && !dir.mkdirs()) {
-            throw new IOException("Failed to create output directory: " + outputDir);
+        framesEmitted = context.getCounter("VideoExtraction", "FramesEmitted");
+
+        // The mapper of this task reports its results to the sampler, which picks the samples to read
+        if (conf.getBoolean("sampling.adaptive", false)) {
+            int availableSamples = (totalFrames + frameStep - 1) / frameStep;
+            sampler = new FrameSampler(videoId, firstSample, Math.min(endSample, availableSamples),
+                    conf.getInt("sampling.coarse.stride", 4));
+            taskAttemptId = context.getTaskAttemptID();
+            FrameSampler.register(taskAttemptId, sampler);
+            refinedSamples = context.getCounter("VideoExtraction", "RefinedSamples");
+        }
+
+        // Splits that start mid-video jump to their first frame once
+        if (currentFrameIndex > 0) {
+            source.seek(currentFrameIndex);
+        }
+
+        codec = FrameCodec.fromConfiguration(conf);
+        value = codec.createValue();
+
+        // Optionally dump the frames to the task's local frames.output.dir
+        if (conf.getBoolean("frames.dump.enabled", false)) {
+            dumpWriter = new FrameDumpWriter(
+                    conf.get("frames.output.dir", "/tmp/frames"),
+                    codec,
+                    conf.getInt("frames.dump.queue.size", 32),
+                    context.getCounter("VideoExtraction", "DumpQueueFullWaits"),
+                    context.getCounter("VideoExtraction", "DumpWaitMillis"));
         }
     }
 
     @Override
     public boolean nextKeyValue() throws IOException, InterruptedException {
-        System.out.printf("FrameExtractorRecordReader#nextKeyValue()\n");
+        LOG.debug("nextKeyValue()");
 
-        // If we've already extracted the maximum number of frames, we're done
-        if (currentExtractedFrameCount >= maxFramesToExtract) {
+        if (sampler != null) {
+            return nextAdaptiveSample();
+        }
+
+        // If we've reached the end of the split (or the maximum number of frames), we're done
+        if (currentExtractedFrameCount >= endSample) {
             return false;
         }
 
@@ -78,41 +146,50 @@ public class VideoRecordReader extends RecordReader<LongWritable, BytesWritable>
             return false; // no more frames in the video
         }
 
-        // Set the frame position and read the frame
-        videoCapture.set(Videoio.CAP_PROP_POS_FRAMES, currentFrameIndex);
-        Mat frame = new Mat();
-        if (!videoCapture.read(frame) || frame.empty()) {
+        if (!source.read(currentFrameIndex)) {
             return false;
         }
+        setCurrent(currentExtractedFrameCount);
 
-        // Convert the frame to byte array using MatOfByte
-        MatOfByte buffer = new MatOfByte();
-        if (!Imgcodecs.imencode(".jpg", frame, buffer)) {
-            throw new IOException("Failed to encode frame to JPEG");
-        }
-        byte[] frameBytes = buffer.toArray();
+        // Update counters
+        currentFrameIndex += frameStep;
+        currentExtractedFrameCount++;
+        return true;
+    }
 
-        // Save the frame to disk
-        String frameFileName = String.format("%s/frame_%d.jpg", outputDir, currentFrameIndex);
-        boolean saved = Imgcodecs.imwrite(frameFileName, frame);
-        if (!saved) {
-            throw new IOException("Failed to save frame to file: " + frameFileName);
+    /* Samples come in the order the sampler picks, so keys go back in time after a change.
+       A sample that cannot be read is skipped, the frame count of some files is too high. */
+    private boolean nextAdaptiveSample() throws IOException, InterruptedException {
+        long refinedBefore = sampler.getRefined();
+        int sample;
+        while ((sample = sampler.next()) >= 0) {
+            currentFrameIndex = sample * frameStep;
+            if (source.read(currentFrameIndex)) {
+                setCurrent(sample);
+                refinedSamples.increment(sampler.getRefined() - refinedBefore);
+                return true;
+            }
         }
+        return false;
+    }
 
-        System.out.printf("Saved frame to: %s\n", frameFileName);
+    // Encodes the frame just read at currentFrameIndex as the current record
+    private void setCurrent(int sample) throws IOException, InterruptedException {
+        // Encode the frame into the value using the configured frame codec
+        codec.encode(source.getFrame(), value);
 
-        // Set key and value
-        key.set(currentExtractedFrameCount);
-        value.set(frameBytes, 0, frameBytes.length);
+        // Queue the encoded frame for the local dump
+        if (dumpWriter != null) {
+            dumpWriter.write(videoId, currentFrameIndex, value);
+        }
 
-        // Update counters
-        currentFrameIndex += frameStep;
-        currentExtractedFrameCount++;
-        return true;
+        // Set key
+        key.set(videoId, videoHash, sample, source.timestampMs(currentFrameIndex));
+        framesEmitted.increment(1);
     }
 
     @Override
-    public LongWritable getCurrentKey() {
+    public FrameKey getCurrentKey() {
         return key;
     }
 
@@ -123,13 +200,29 @@ public class VideoRecordReader extends RecordReader<LongWritable, BytesWritable>
 
     @Override
     public float getProgress() throws IOException, InterruptedException {
-        return maxFramesToExtract == 0 ? 0f : (float) currentExtractedFrameCount / maxFramesToExtract;
+        if (sampler != null) {
+            return sampler.getProgress(firstSample);
+        }
+        int samples = endSample - firstSample;
+        return samples <= 0 ? 0f : (float) (currentExtractedFrameCount - firstSample) / samples;
     }
 
     @Override
-    public void close() {
-        if (videoCapture != null) {
-            videoCapture.release();
+    public void close() throws IOException {
+        if (sampler != null) {
+            FrameSampler.unregister(taskAttemptId, sampler);
+        }
+        if (source != null) {
+            source.close();
+        }
+
+        if (dumpWriter != null) {
+            try {
+                dumpWriter.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while flushing frame dump", e);
+            }
         }
     }
 }
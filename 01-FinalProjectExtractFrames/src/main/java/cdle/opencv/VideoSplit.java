@@ -0,0 +1,53 @@
+package cdle.opencv;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+
+/* A time range of a video, expressed as global sample indices.
+   Sample i corresponds to frame i * frameStep of the video. */
+public class VideoSplit extends FileSplit {
+
+    private int firstSample;
+    private int endSample; // exclusive
+
+    public VideoSplit() {
+        super();
+    }
+
+    public VideoSplit(Path file, long start, long length, String[] hosts, int firstSample, int endSample) {
+        super(file, start, length, hosts);
+        this.firstSample = firstSample;
+        this.endSample = endSample;
+    }
+
+    public int getFirstSample() {
+        return firstSample;
+    }
+
+    public int getEndSample() {
+        return endSample;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        super.write(out);
+        out.writeInt(firstSample);
+        out.writeInt(endSample);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        super.readFields(in);
+        firstSample = in.readInt();
+        endSample = in.readInt();
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + " samples [" + firstSample + ", " + endSample + ")";
+    }
+}
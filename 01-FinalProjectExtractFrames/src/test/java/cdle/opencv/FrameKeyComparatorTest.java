@@ -0,0 +1,75 @@
+package cdle.opencv;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+// The raw FrameKey comparator must sort serialized keys exactly like FrameKey.compareTo
+public class FrameKeyComparatorTest {
+
+    // Shared prefixes and non-ASCII ids, where modified UTF-8 bytes do not sort like the strings
+    private static final String[] VIDEO_IDS = { "", "a.mp4", "a.mp4.ts", "b.mp4", "B.mp4", "clip_\u00e9.mp4",
+            "clip_\u00ea.mp4", "clip_\u4e2d.mp4", "clip_\uD83C\uDFC0.mp4", "clip_\u0000.mp4" };
+
+    private final Random random = new Random(42);
+
+    @Test
+    public void rawCompareAgreesWithCompareTo() throws IOException {
+        WritableComparator comparator = WritableComparator.get(FrameKey.class);
+        for (int i = 0; i < 100000; i++) {
+            FrameKey a = randomKey();
+            FrameKey b = random.nextInt(10) == 0 ? copy(a) : randomKey();
+            byte[] bytesA = serialize(a);
+            byte[] bytesB = serialize(b);
+
+            // Keys at an offset inside a larger buffer, as in the shuffle
+            byte[] buffer = new byte[3 + bytesA.length + bytesB.length];
+            System.arraycopy(bytesA, 0, buffer, 3, bytesA.length);
+            System.arraycopy(bytesB, 0, buffer, 3 + bytesA.length, bytesB.length);
+
+            int expected = Integer.signum(a.compareTo(b));
+            assertEquals(a + " vs " + b, expected, Integer.signum(comparator.compare(
+                    buffer, 3, bytesA.length, buffer, 3 + bytesA.length, bytesB.length)));
+            assertEquals(b + " vs " + a, -expected, Integer.signum(comparator.compare(
+                    buffer, 3 + bytesA.length, bytesB.length, buffer, 3, bytesA.length)));
+        }
+    }
+
+    @Test
+    public void videoIdsCompareLikeStrings() throws IOException {
+        for (String a : VIDEO_IDS) {
+            for (String b : VIDEO_IDS) {
+                byte[] bytesA = serialize(new FrameKey(a, "", 0, 0));
+                byte[] bytesB = serialize(new FrameKey(b, "", 0, 0));
+                assertEquals(a + " vs " + b, Integer.signum(a.compareTo(b)),
+                        Integer.signum(FrameKey.Comparator.compareVideoIds(bytesA, 0, bytesB, 0)));
+            }
+        }
+    }
+
+    private FrameKey randomKey() {
+        String videoId = VIDEO_IDS[random.nextInt(VIDEO_IDS.length)];
+        String videoHash = random.nextBoolean() ? "" : Long.toHexString(random.nextLong());
+        // Small ranges so equal fields are common, and negative or large values for the sign handling
+        long frameIndex = random.nextInt(4) == 0 ? random.nextLong() : random.nextInt(5);
+        long timestampMs = random.nextInt(4) == 0 ? random.nextLong() : random.nextInt(5) * 200L;
+        return new FrameKey(videoId, videoHash, frameIndex, timestampMs);
+    }
+
+    private static FrameKey copy(FrameKey key) {
+        return new FrameKey(key.getVideoId(), key.getVideoHash(), key.getFrameIndex(), key.getTimestampMs());
+    }
+
+    private static byte[] serialize(FrameKey key) throws IOException {
+        DataOutputBuffer out = new DataOutputBuffer();
+        key.write(out);
+        byte[] bytes = new byte[out.getLength()];
+        System.arraycopy(out.getData(), 0, bytes, 0, out.getLength());
+        return bytes;
+    }
+}
@@ -81,14 +81,16 @@ fi
 # Paths
 LIBRARY_PATH="../NativeLibs"
 OPENCV_JAR_BASE_PATH="./target/libs/opencv-4.9.0-0.jar"
+EXTRACT_FRAMES_JAR_BASE_PATH="./target/libs/01-FinalProjectExtractFrames-2020.2021.SemInv.jar"
 OPENCV_NATIVE_LIB_PATH=`realpath ${LIBRARY_PATH}/libopencv_java490.so`
 
 JAR_FILE_BASE_PATH="./target/02-ProcessFrames-2020.2021.SemInv.jar"
 JAR_FILE=`realpath "${JAR_FILE_BASE_PATH}"`
 OPENCV_JAR=`realpath "${OPENCV_JAR_BASE_PATH}"`
+EXTRACT_FRAMES_JAR=`realpath "${EXTRACT_FRAMES_JAR_BASE_PATH}"`
 
 JOB_CONFIG="-conf myconf.xml"
-JOB_OPTIONS="${JOB_CONFIG} -files file://${OPENCV_NATIVE_LIB_PATH} -libjars file://${OPENCV_JAR}"
+JOB_OPTIONS="${JOB_CONFIG} -files file://${OPENCV_NATIVE_LIB_PATH} -libjars file://${OPENCV_JAR},file://${EXTRACT_FRAMES_JAR}"
 
 ARGS="${JOB_OPTIONS} ${INPUT_DIRECTORY} ${OUTPUT_DIRECTORY} ${NUM_REDUCERS}"
 
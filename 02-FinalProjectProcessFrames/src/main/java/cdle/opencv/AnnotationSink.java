@@ -0,0 +1,43 @@
+package cdle.opencv;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.opencv.core.Mat;
+
+/* Where annotated frames go (annotation.mode):
+     off          -> nowhere, frames are not even annotated (default)
+     png          -> a PNG per frame in the local image.output.path folder of the worker
+     sequencefile -> JPEGs in a SequenceFile per task under annotation.output.dir, encoded on a background thread
+     video        -> an MJPEG AVI per video and task under annotation.output.dir
+   annotation.sample.every keeps one frame out of N. Frames are written by the task thread
+   in key order, and the Mat is only valid during the call. */
+public interface AnnotationSink {
+
+    void write(FrameKey key, Mat annotated) throws IOException, InterruptedException;
+
+    void close() throws IOException, InterruptedException;
+
+    // null when annotation.mode is off
+    static AnnotationSink create(TaskAttemptContext context) throws IOException {
+        Configuration conf = context.getConfiguration();
+        String mode = conf.get("annotation.mode", "off");
+        String outputDir = conf.get("annotation.output.dir", conf.get("image.output.path"));
+        switch (mode) {
+            case "off":
+                return null;
+            case "png":
+                return new PngAnnotationSink(outputDir, context.getCounter("Annotation", "FailedWrites"));
+            case "sequencefile":
+                return new SequenceFileAnnotationSink(conf, outputDir, context.getTaskAttemptID(),
+                        conf.getInt("annotation.queue.size", 16));
+            case "video":
+                float interval = conf.getFloat("frames.interval.seconds", 1.0f);
+                return new VideoAnnotationSink(conf, outputDir, context.getTaskAttemptID(),
+                        conf.getDouble("annotation.video.fps", 1.0 / interval));
+            default:
+                throw new IOException("Unknown annotation.mode: " + mode);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package cdle.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.dnn.Net;
+
+/* Darknet YOLO models (yolov3, yolov3-tiny, yolov4-tiny...), read with readNetFromDarknet.
+   All the images of a batch go through a single forward pass. */
+public class DarknetDetector extends YoloDetector {
+
+    public DarknetDetector(Net net, List<String> classNames, int inputSize, String backend, String target) {
+        super("darknet", net, classNames, inputSize, backend, target);
+    }
+
+    @Override
+    protected void detectPlayers(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences) {
+        List<Mat> outputs = forward(images);
+
+        try {
+            // One bulk copy per output layer, batched outputs are N x rows x 85, a single image gives rows x 85.
+            // The copy counts towards the parse time of the first image.
+            long t = System.nanoTime();
+            float[][] outputData = new float[outputs.size()][];
+            for (int o = 0; o < outputs.size(); o++) {
+                outputData[o] = copyOutput(o, outputs.get(o));
+            }
+
+            for (int b = 0; b < images.size(); b++) {
+                for (int o = 0; o < outputs.size(); o++) {
+                    Mat output = outputs.get(o);
+                    int cols = output.size(output.dims() - 1);
+                    int rowsPerImage = (int) (output.total() / cols / images.size());
+                    parseYoloResults(outputData[o], b * rowsPerImage, rowsPerImage, cols, images.get(b));
+                }
+                t = timings.record(Stage.PARSE, t);
+                List<Float> imageConfidences = new ArrayList<>();
+                playerBoxes.add(applyNMS(imageConfidences));
+                confidences.add(imageConfidences);
+                t = timings.record(Stage.NMS, t);
+            }
+        } finally {
+            for (Mat output : outputs) {
+                output.release();
+            }
+        }
+    }
+
+    /* Scans rows [firstRow, firstRow + rowCount) of a copied output, each row being
+       cx, cy, w, h relative to the image, objectness and the class scores. Class scores
+       are objectness * class probability, so rows whose objectness is under the threshold
+       are skipped without looking at the scores. A row is kept when the person score passes
+       the threshold and is the best class score, as Core.minMaxLoc would have picked it.
+       Package-private for the benchmarks. */
+    void parseYoloResults(float[] data, int firstRow, int rowCount, int cols, Mat image) {
+        int classCount = cols - 5;
+        if (personClassId < 0 || personClassId >= classCount) {
+            return;
+        }
+
+        int personCol = 5 + personClassId;
+        for (int i = firstRow; i < firstRow + rowCount; i++) {
+            int offset = i * cols;
+            if (data[offset + 4] <= CONF_THRESHOLD) {
+                continue;
+            }
+
+            float confidence = data[offset + personCol];
+            if (confidence <= CONF_THRESHOLD || !isBestClass(data, offset + 5, classCount, 1, confidence)) {
+                continue;
+            }
+
+            int centerX = (int) ((double) data[offset] * image.cols());
+            int centerY = (int) ((double) data[offset + 1] * image.rows());
+            int width = (int) ((double) data[offset + 2] * image.cols());
+            int height = (int) ((double) data[offset + 3] * image.rows());
+            int x = centerX - width / 2;
+            int y = centerY - height / 2;
+
+            addCandidate(x, y, width, height, confidence);
+        }
+    }
+}
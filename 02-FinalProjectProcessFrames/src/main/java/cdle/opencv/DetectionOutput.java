@@ -0,0 +1,46 @@
+package cdle.opencv;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.SequenceFile.CompressionType;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+
+/* Per-task SequenceFile of (FrameKey, DetectionRecord) under detections.output.dir,
+   block compressed. It is written under a _ name and renamed to the task's name on
+   close, so readers skip the files of failed attempts and a retry replaces the file.
+   ImageDriver deletes the _ files left by failed attempts once the job ends. */
+public class DetectionOutput {
+
+    private final SequenceFile.Writer writer;
+    private final FileSystem fs;
+    private final Path pendingFile;
+    private final Path file;
+
+    public DetectionOutput(Configuration conf, TaskAttemptID attempt) throws IOException {
+        Path dir = new Path(conf.get("detections.output.dir"));
+        this.fs = dir.getFileSystem(conf);
+        this.pendingFile = new Path(dir, "_" + attempt);
+        this.file = new Path(dir, "part-" + attempt.getTaskID());
+        this.writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(pendingFile),
+                SequenceFile.Writer.keyClass(FrameKey.class),
+                SequenceFile.Writer.valueClass(DetectionRecord.class),
+                SequenceFile.Writer.compression(CompressionType.BLOCK));
+    }
+
+    public void write(FrameKey key, DetectionRecord record) throws IOException {
+        writer.append(key, record);
+    }
+
+    public void close() throws IOException {
+        writer.close();
+        fs.delete(file, false);
+        if (!fs.rename(pendingFile, file)) {
+            throw new IOException("Failed to publish detections to " + file);
+        }
+    }
+}
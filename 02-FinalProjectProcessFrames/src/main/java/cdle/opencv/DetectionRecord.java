@@ -0,0 +1,125 @@
+package cdle.opencv;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/* Everything the annotator found in one frame, stored column by column: the player
+   boxes as x, y, width, height floats, their confidences, their team ids as bytes,
+   the ball box if one was found, and the possession the job emitted. It only holds
+   primitives, so it can be read back without OpenCV (see PossessionReplay). */
+public class DetectionRecord implements Writable {
+
+    private int width;
+    private int height;
+    private int players;
+    private float[] boxes = new float[0];
+    private float[] confidences = new float[0];
+    private byte[] teams = new byte[0];
+    private float[] ball; // null when no ball was found
+    private Team possession = Team.UNKNOWN;
+
+    public void set(int width, int height, int players, float[] boxes, float[] confidences, byte[] teams, float[] ball,
+            Team possession) {
+        this.width = width;
+        this.height = height;
+        this.players = players;
+        this.boxes = boxes;
+        this.confidences = confidences;
+        this.teams = teams;
+        this.ball = ball;
+        this.possession = possession;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getPlayers() {
+        return players;
+    }
+
+    // x, y, width and height of each player, 4 floats per player
+    public float[] getBoxes() {
+        return boxes;
+    }
+
+    public float[] getConfidences() {
+        return confidences;
+    }
+
+    // Team ids, see Team.fromId
+    public byte[] getTeams() {
+        return teams;
+    }
+
+    // x, y, width and height of the ball, null when none was found
+    public float[] getBall() {
+        return ball;
+    }
+
+    public Team getPossession() {
+        return possession;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, width);
+        WritableUtils.writeVInt(out, height);
+        WritableUtils.writeVInt(out, players);
+        for (int i = 0; i < players * 4; i++) {
+            out.writeFloat(boxes[i]);
+        }
+        for (int i = 0; i < players; i++) {
+            out.writeFloat(confidences[i]);
+        }
+        out.write(teams, 0, players);
+        out.writeBoolean(ball != null);
+        if (ball != null) {
+            for (int i = 0; i < 4; i++) {
+                out.writeFloat(ball[i]);
+            }
+        }
+        out.writeByte(possession.getId());
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        width = WritableUtils.readVInt(in);
+        height = WritableUtils.readVInt(in);
+        players = WritableUtils.readVInt(in);
+
+        // Arrays are reused when large enough
+        if (confidences.length < players) {
+            boxes = new float[players * 4];
+            confidences = new float[players];
+            teams = new byte[players];
+        }
+        for (int i = 0; i < players * 4; i++) {
+            boxes[i] = in.readFloat();
+        }
+        for (int i = 0; i < players; i++) {
+            confidences[i] = in.readFloat();
+        }
+        in.readFully(teams, 0, players);
+
+        if (in.readBoolean()) {
+            if (ball == null) {
+                ball = new float[4];
+            }
+            for (int i = 0; i < 4; i++) {
+                ball[i] = in.readFloat();
+            }
+        } else {
+            ball = null;
+        }
+        possession = Team.fromId(in.readByte());
+    }
+}
@@ -0,0 +1,39 @@
+package cdle.opencv;
+
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.dnn.Net;
+
+/* Finds the players of each frame. Implementations differ in the model format they read
+   (yolo.model.format), and share the input size (yolo.input.size) and the OpenCV backend
+   and target the network runs on (yolo.backend, yolo.target). */
+public interface Detector {
+
+    // Fills playerBoxes and confidences with the person detections of each image, after NMS
+    void detect(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences);
+
+    // Model format, input size, backend and target, for the logs
+    String getName();
+
+    long getFrames();
+
+    long getForwardPasses();
+
+    long getDetectNanos();
+
+    // Latency of the blob, forward, parse and NMS stages
+    StageTimings getTimings();
+
+    static Detector create(String format, Net net, List<String> classNames, int inputSize, String backend, String target) {
+        switch (format) {
+            case "darknet":
+                return new DarknetDetector(net, classNames, inputSize, backend, target);
+            case "onnx":
+                return new OnnxDetector(net, classNames, inputSize, backend, target);
+            default:
+                throw new IllegalArgumentException("Unknown yolo.model.format: " + format);
+        }
+    }
+}
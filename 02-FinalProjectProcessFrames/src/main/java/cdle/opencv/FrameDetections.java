@@ -0,0 +1,58 @@
+package cdle.opencv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Rect2d;
+
+/* Players found in one frame: each detection clipped to the image, with its YOLO
+   confidence and its team classified once. Annotation and possession both read from
+   it, and the annotator reuses a single instance across frames. */
+public class FrameDetections {
+
+    private final List<Rect2d> boxes = new ArrayList<>();
+    private final List<Float> confidences = new ArrayList<>();
+    private final List<Team> teams = new ArrayList<>();
+
+    public void clear() {
+        boxes.clear();
+        confidences.clear();
+        teams.clear();
+    }
+
+    public void add(Rect2d box, float confidence, Team team) {
+        boxes.add(box);
+        confidences.add(confidence);
+        teams.add(team);
+    }
+
+    public void setBox(int i, Rect2d box) {
+        boxes.set(i, box);
+    }
+
+    public void remove(int i) {
+        boxes.remove(i);
+        confidences.remove(i);
+        teams.remove(i);
+    }
+
+    public int size() {
+        return boxes.size();
+    }
+
+    public Rect2d getBox(int i) {
+        return boxes.get(i);
+    }
+
+    public float getConfidence(int i) {
+        return confidences.get(i);
+    }
+
+    public Team getTeam(int i) {
+        return teams.get(i);
+    }
+
+    public List<Rect2d> getBoxes() {
+        return boxes;
+    }
+}
@@ -0,0 +1,567 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/* Runs the possession detection on each frame and hands the results, in key order, to
+   emit. Subclasses decide what the job outputs: ImageMapper counts frames per team,
+   PossessionTimelineMapper keeps each frame's time for the timeline. */
+public abstract class FrameMapper<KEYOUT, VALUEOUT> extends Mapper<FrameKey, BytesWritable, KEYOUT, VALUEOUT> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FrameMapper.class);
+
+    private ImageAnnotator imageAnnotator;
+
+    // Frames waiting for the next batched forward pass, in key order; duplicates have no path or image
+    private int batchSize;
+    private final List<FrameKey> batchKeys = new ArrayList<>();
+    private final List<Boolean> batchDuplicates = new ArrayList<>();
+    private final List<String> batchPaths = new ArrayList<>();
+    private final List<Mat> batchImages = new ArrayList<>();
+
+    /* Native memory of the frames: the pool is reused across batches, and each batch's
+       arena owns its decoded images until the batch is emitted */
+    private MatPool matPool;
+    private MatArena batchArena;
+
+    /* With yolo.mapper.threads > 1 the task thread decodes and queues batches, worker
+       threads (each with its own ImageAnnotator, since a Net is not thread safe) run the
+       detection, and the task thread emits the finished batches in submission order. */
+    private ExecutorService workers;
+    private ThreadLocal<ImageAnnotator> workerAnnotators;
+    private final Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+    private int maxPendingBatches;
+
+    // Tracking mode (tracking.enabled) and the key of the last frame queued
+    private boolean tracking;
+    private FrameKey lastKey;
+
+    // Adaptive sampling (sampling.adaptive): results go back to the task's FrameSampler as they are emitted
+    private boolean adaptiveSampling;
+
+    // Results of earlier runs, null unless cache.dir is set
+    private ResultCache resultCache;
+
+    // Per-frame detections for later replays, null unless detections.output.dir is set
+    private DetectionOutput detectionOutput;
+
+    /* Pre-filter, null unless prefilter.enabled. Duplicate frames reuse the result of the
+       last analysed frame emitted before them, null if that frame failed. */
+    private FramePrefilter prefilter;
+    private Team lastPossession;
+    private DetectionRecord lastRecord;
+
+    // Annotated frames, null when annotation.mode is off; one frame out of annotationSampleEvery is kept
+    private AnnotationSink annotationSink;
+    private int annotationSampleEvery;
+
+    // Every annotator of the task, for the ball search and tracking counters
+    private final List<ImageAnnotator> annotators = Collections.synchronizedList(new ArrayList<>());
+
+    // Latency of the decode and save stages, recorded by the task thread, then of the whole task
+    private final StageTimings timings = new StageTimings();
+
+    // Networks leased from the ModelRegistry, returned to it when the task ends
+    private final List<ModelRegistry.PooledNet> nets = Collections.synchronizedList(new ArrayList<>());
+
+    private static class PendingBatch {
+        final List<FrameKey> keys;
+        final List<Boolean> duplicates;
+        final List<Mat> images; // annotated by the worker
+        final MatArena arena; // owns the images, closed once the batch is emitted
+        final List<DetectionRecord> records; // filled by the worker, null unless detections are written
+        Future<List<Team>> possessions;
+
+        PendingBatch(List<FrameKey> keys, List<Boolean> duplicates, List<Mat> images, MatArena arena,
+                List<DetectionRecord> records) {
+            this.keys = keys;
+            this.duplicates = duplicates;
+            this.images = images;
+            this.arena = arena;
+            this.records = records;
+        }
+    }
+
+    static {
+        Utils.loadNative();
+    }
+
+    /* Called once per frame, except the frames the pre-filter drops. Processed frames come
+       in key order; frames found in the result cache are emitted as soon as they are read,
+       ahead of batches in flight. */
+    protected abstract void emit(FrameKey key, Team possession, Context context) throws IOException, InterruptedException;
+
+    @Override
+    protected void setup(Context context) throws IOException, InterruptedException {
+        Configuration conf = context.getConfiguration();
+        localizeModelFiles(context);
+
+        int openCvThreads = conf.getInt("yolo.opencv.threads", -1);
+        if (openCvThreads >= 0) {
+            Core.setNumThreads(openCvThreads);
+        }
+
+        if (!conf.get("cache.dir", "").isEmpty()) {
+            this.resultCache = new ResultCache(conf, context.getTaskAttemptID().toString());
+        }
+
+        if (!conf.get("detections.output.dir", "").isEmpty()) {
+            this.detectionOutput = new DetectionOutput(conf, context.getTaskAttemptID());
+        }
+
+        this.prefilter = FramePrefilter.create(conf);
+
+        this.annotationSink = AnnotationSink.create(context);
+        this.annotationSampleEvery = Math.max(1, conf.getInt("annotation.sample.every", 1));
+
+        this.batchSize = Math.max(1, conf.getInt("yolo.batch.size", 1));
+
+        // Decoding runs on the task thread, which also closes the arenas, so one pool serves the task
+        this.matPool = new MatPool(conf.getInt("frames.pool.size", 8));
+        this.batchArena = new MatArena(matPool);
+        int threads = conf.getInt("yolo.mapper.threads", 1);
+
+        /* Tracking carries state from one frame to the next, and the adaptive sampler needs
+           each result before it picks the next sample, so frames are processed one at a time */
+        this.tracking = conf.getBoolean("tracking.enabled", false);
+        this.adaptiveSampling = conf.getBoolean("sampling.adaptive", false);
+        if ((tracking || adaptiveSampling) && (batchSize > 1 || threads > 1)) {
+            System.err.printf("[%s] %s: ignoring yolo.batch.size=%d and yolo.mapper.threads=%d.\n",
+                    getClass().getName(), tracking ? "tracking.enabled" : "sampling.adaptive", batchSize, threads);
+            this.batchSize = 1;
+            threads = 1;
+        }
+
+        if (threads <= 1) {
+            this.imageAnnotator = createAnnotator(conf);
+            annotators.add(imageAnnotator);
+            return;
+        }
+
+        this.workerAnnotators = ThreadLocal.withInitial(() -> {
+            try {
+                // OpenCV's thread setting may be per calling thread, depending on its parallel backend
+                if (openCvThreads >= 0) {
+                    Core.setNumThreads(openCvThreads);
+                }
+                ImageAnnotator annotator = createAnnotator(conf);
+                annotators.add(annotator);
+                return annotator;
+            } catch (IOException e) {
+                throw new IllegalStateException(e.getMessage(), e.getCause());
+            }
+        });
+
+        int queueSize = conf.getInt("yolo.mapper.queue.size", threads);
+        this.maxPendingBatches = threads + queueSize;
+
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                // maxPendingBatches is the real bound: a batch can be emitted before its worker takes the next one
+                new ArrayBlockingQueue<>(maxPendingBatches),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-mapper-worker-" + workerCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /* Points the yolo.model.* settings at the copies ImageDriver shipped through the
+       distributed cache, linked in the task's working directory under the file names.
+       Without them, the settings are paths present on every node. */
+    private void localizeModelFiles(Context context) throws IOException {
+        URI[] cacheFiles = context.getCacheFiles();
+        if (cacheFiles == null) {
+            return;
+        }
+        Configuration conf = context.getConfiguration();
+        for (String model : ImageDriver.MODEL_FILES) {
+            if (conf.get(model, "").isEmpty()) {
+                continue;
+            }
+            String link = new Path(conf.get(model)).getName();
+            for (URI cacheFile : cacheFiles) {
+                if (link.equals(cacheFile.getFragment()) && new File(link).exists()) {
+                    conf.set(model, new File(link).getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    // Package-private so the tests can run the mapper over their own detector
+    ImageAnnotator createAnnotator(Configuration conf) throws IOException {
+        // Initialize the detector, with a network loaded by an earlier task of this JVM if there is one
+        ModelRegistry.PooledNet net = ModelRegistry.acquire(conf.get("yolo.model.format", "darknet"),
+                conf.get("yolo.model.config"), conf.get("yolo.model.weights"));
+        nets.add(net);
+        ImageAnnotator annotator = createAnnotator(conf, net);
+        LOG.info("Detector: {}", annotator.getDetector().getName());
+        return annotator;
+    }
+
+    // Annotator over a leased network, set up from the yolo.*, annotation, ball and tracking settings
+    static ImageAnnotator createAnnotator(Configuration conf, ModelRegistry.PooledNet net) throws IOException {
+        try {
+            Detector detector = Detector.create(conf.get("yolo.model.format", "darknet"), net.getNet(),
+                    Files.readAllLines(Paths.get(conf.get("yolo.class.names"))), conf.getInt("yolo.input.size", 416),
+                    conf.get("yolo.backend", "opencv"), conf.get("yolo.target", "cpu"));
+
+            // Initialize ImageAnnotator
+            ImageAnnotator annotator = new ImageAnnotator(detector);
+            annotator.setAnnotate(!conf.get("annotation.mode", "off").equals("off"));
+            annotator.setBallSearch(conf.get("ball.search.mode", "full"),
+                    conf.getDouble("ball.roi.dilation", 0.5), conf.getDouble("ball.roi.window", 4.0));
+            if (conf.getBoolean("tracking.enabled", false)) {
+                annotator.setTracking(conf.getInt("tracking.keyframe.interval", 5),
+                        conf.getDouble("tracking.min.confidence", 0.6));
+            }
+            return annotator;
+        } catch (Exception e) {
+            throw new IOException("Failed to initialize ImageAnnotator", e);
+        }
+    }
+
+    @Override
+    protected void map(FrameKey key, BytesWritable value, Context context)
+            throws IOException, InterruptedException {
+        // Frames processed by an earlier run are emitted from the cache, without decoding them
+        if (resultCache != null) {
+            DetectionRecord cached = resultCache.get(key);
+            if (cached != null) {
+                context.getCounter("ResultCache", "Hits").increment(1);
+                emit(key, cached.getPossession(), context);
+                reportToSampler(key, cached.getPossession(), context);
+                if (detectionOutput != null) {
+                    detectionOutput.write(key, cached);
+                }
+                return;
+            }
+            context.getCounter("ResultCache", "Misses").increment(1);
+        }
+
+        // Only a frame that cannot be decoded or pre-filtered is skipped, batch failures fail the task
+        Mat image;
+        FramePrefilter.Verdict verdict = FramePrefilter.Verdict.ANALYSE;
+        try {
+            // Convert BytesWritable to Mat, raw frames are wrapped without decoding
+            long start = System.nanoTime();
+            image = FrameCodec.decode(value, batchArena);
+            timings.record(Stage.DECODE, start);
+
+            if (image.empty()) {
+                // Failures are only counted, they are not possession results
+                batchArena.release(image);
+                System.err.printf("Failed to decode image %s\n", key);
+                context.getCounter("ImageProcessing", "FailedImages").increment(1);
+                return;
+            }
+
+            if (prefilter != null) {
+                start = System.nanoTime();
+                verdict = prefilter.classify(key.getVideoId(), image);
+                timings.record(Stage.PREFILTER, start);
+                context.getCounter("Prefilter", verdict == FramePrefilter.Verdict.ANALYSE ? "Analysed"
+                        : verdict == FramePrefilter.Verdict.DUPLICATE ? "Duplicates" : "NonCourt").increment(1);
+            }
+        } catch (RuntimeException e) {
+            // e.g. a CvException from a corrupt payload; the arena releases the image with the batch
+            System.err.printf("Error processing image %s: %s\n", key, e.getMessage());
+            context.getCounter("ImageProcessing", "Errors").increment(1);
+            return;
+        }
+
+        // Dropped frames leave a gap in the keys, so tracking starts over after them
+        if (verdict == FramePrefilter.Verdict.NON_COURT) {
+            batchArena.release(image);
+            return;
+        }
+
+        // A gap in the frame keys breaks the sequence being tracked
+        FrameKey frameKey = copy(key);
+        if (tracking && (lastKey == null || !lastKey.getVideoId().equals(frameKey.getVideoId())
+                || frameKey.getFrameIndex() != lastKey.getFrameIndex() + 1)) {
+            imageAnnotator.resetTracking();
+        }
+        lastKey = frameKey;
+
+        // Nothing moved, the frame only waits in the batch for the result of the one it duplicates
+        if (verdict == FramePrefilter.Verdict.DUPLICATE) {
+            batchArena.release(image);
+            batchKeys.add(frameKey);
+            batchDuplicates.add(true);
+            return;
+        }
+
+        // In fused mode the frame belongs to the record reader, which overwrites it on the next record
+        if ((batchSize > 1 || workers != null) && value instanceof DecodedFrameWritable) {
+            Mat copy = batchArena.track(image.clone());
+            batchArena.release(image);
+            image = copy;
+        }
+
+        // Queue the frame, marking and possession detection run once the batch is full
+        batchKeys.add(frameKey);
+        batchDuplicates.add(false);
+        batchPaths.add(String.format("%s_frame_%d", key.getVideoId(), key.getFrameIndex()));
+        batchImages.add(image);
+        if (batchImages.size() >= batchSize) {
+            flushBatch(context);
+        }
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        // Last, partial batch
+        flushBatch(context);
+
+        if (workers != null) {
+            while (!pendingBatches.isEmpty()) {
+                emitOldestBatch(context);
+            }
+            workers.shutdown();
+        }
+
+        synchronized (nets) {
+            for (ModelRegistry.PooledNet net : nets) {
+                context.getCounter("Model", net.isLoaded() ? "NetsLoaded" : "NetsReused").increment(1);
+                context.getCounter("Model", "LoadMillis").increment(net.getLoadMillis());
+                ModelRegistry.release(net);
+            }
+            nets.clear();
+        }
+
+        if (resultCache != null) {
+            resultCache.close();
+        }
+        if (detectionOutput != null) {
+            detectionOutput.close();
+        }
+        if (annotationSink != null) {
+            annotationSink.close();
+        }
+        if (prefilter != null) {
+            prefilter.release();
+        }
+
+        /* How often a pooled raw frame Mat was reused adds up over the tasks. The peak native
+           memory of the frames in this JVM does not, it goes to the latency summary. */
+        batchArena.close();
+        context.getCounter("Memory", "PooledFrameReuses").increment(matPool.getReuses());
+        matPool.release();
+        timings.setPeakNativeBytes(MatArena.getPeakNativeBytes());
+
+        synchronized (annotators) {
+            for (ImageAnnotator annotator : annotators) {
+                context.getCounter("BallDetection", "FullFrameSearches").increment(annotator.getFullFrameSearches());
+                context.getCounter("BallDetection", "RoiSearches").increment(annotator.getRoiSearches());
+                context.getCounter("BallDetection", "RoiHits").increment(annotator.getRoiHits());
+                context.getCounter("BallDetection", "FullFrameFallbacks").increment(annotator.getFullFrameFallbacks());
+                context.getCounter("Tracking", "Keyframes").increment(annotator.getKeyframes());
+                context.getCounter("Tracking", "TrackedFrames").increment(annotator.getTrackedFrames());
+                context.getCounter("Tracking", "Redetections").increment(annotator.getTrackingRedetections());
+                context.getCounter("Detector", "Frames").increment(annotator.getDetector().getFrames());
+                context.getCounter("Detector", "ForwardPasses").increment(annotator.getDetector().getForwardPasses());
+                context.getCounter("Detector", "DetectMillis").increment(annotator.getDetector().getDetectNanos() / 1000000);
+                timings.merge(annotator.getTimings());
+                timings.merge(annotator.getDetector().getTimings());
+            }
+        }
+        writeLatency(context);
+    }
+
+    /* The Latency counters hold the calls and total time of each stage, which add up over
+       the tasks. Percentiles do not, so they go to a summary file per task, which
+       ImageDriver merges into the percentiles of the job. A summary that cannot be written
+       is only counted, the task's results do not depend on it. */
+    private void writeLatency(Context context) {
+        for (Stage stage : Stage.values()) {
+            LatencyHistogram histogram = timings.get(stage);
+            if (histogram != null) {
+                context.getCounter("Latency", stage.getLabel() + "Calls").increment(histogram.getCount());
+                context.getCounter("Latency", stage.getLabel() + "Micros").increment(histogram.getTotalNanos() / 1000);
+            }
+        }
+
+        Configuration conf = context.getConfiguration();
+        Path directory = ImageDriver.latencyDirectory(conf, context.getJobID());
+        Path file = new Path(directory, context.getTaskAttemptID().getTaskID().toString());
+        try {
+            FileSystem fs = directory.getFileSystem(conf);
+            Path pendingFile = new Path(directory, "_" + context.getTaskAttemptID());
+            timings.writeSummary(fs, pendingFile);
+            fs.delete(file, false);
+            if (!fs.rename(pendingFile, file)) {
+                throw new IOException("rename failed");
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to publish the latency summary {}: {}", file, e.getMessage());
+            context.getCounter("Latency", "UnpublishedSummaries").increment(1);
+        }
+    }
+
+    private void flushBatch(Context context) throws IOException, InterruptedException {
+        if (batchKeys.isEmpty()) {
+            return;
+        }
+
+        if (workers != null) {
+            submitBatch(context);
+            return;
+        }
+
+        try {
+            List<DetectionRecord> records = keepsRecords() ? new ArrayList<>() : null;
+            List<Team> possessions;
+            try {
+                possessions = batchImages.isEmpty() ? Collections.<Team>emptyList()
+                        : imageAnnotator.annotateAndDetectBatch(batchPaths, batchImages, records);
+            } catch (RuntimeException e) {
+                batchFailed(batchKeys, e, context);
+                return;
+            }
+            emit(batchKeys, batchDuplicates, possessions, batchImages, records, context);
+        } catch (RuntimeException e) {
+            lastPossession = null;
+            throw e;
+        } finally {
+            batchArena.close();
+            batchKeys.clear();
+            batchDuplicates.clear();
+            batchPaths.clear();
+            batchImages.clear();
+        }
+    }
+
+    private void submitBatch(Context context) throws IOException, InterruptedException {
+        // Bound the work in flight, so decoding cannot run ahead of inference
+        while (pendingBatches.size() >= maxPendingBatches) {
+            emitOldestBatch(context);
+        }
+
+        List<FrameKey> keys = new ArrayList<>(batchKeys);
+        List<Boolean> duplicates = new ArrayList<>(batchDuplicates);
+        List<String> paths = new ArrayList<>(batchPaths);
+        List<Mat> images = new ArrayList<>(batchImages);
+        batchKeys.clear();
+        batchDuplicates.clear();
+        batchPaths.clear();
+        batchImages.clear();
+
+        PendingBatch batch = new PendingBatch(keys, duplicates, images, batchArena,
+                keepsRecords() ? new ArrayList<>() : null);
+        batchArena = new MatArena(matPool);
+        batch.possessions = images.isEmpty() ? CompletableFuture.completedFuture(Collections.<Team>emptyList())
+                : workers.submit(() -> workerAnnotators.get().annotateAndDetectBatch(paths, images, batch.records));
+        pendingBatches.add(batch);
+
+        // Emit whatever already finished, without waiting
+        while (!pendingBatches.isEmpty() && pendingBatches.peek().possessions.isDone()) {
+            emitOldestBatch(context);
+        }
+    }
+
+    private void emitOldestBatch(Context context) throws IOException, InterruptedException {
+        PendingBatch batch = pendingBatches.poll();
+        try {
+            emit(batch.keys, batch.duplicates, batch.possessions.get(), batch.images, batch.records, context);
+        } catch (ExecutionException e) {
+            lastPossession = null;
+            if (e.getCause() instanceof IllegalStateException) {
+                throw new IOException("Failed to initialize ImageAnnotator", e.getCause());
+            }
+            batchFailed(batch.keys, e.getCause(), context);
+        } finally {
+            batch.arena.close();
+        }
+    }
+
+    // A failed detection drops the whole batch from the results, so every frame of it is counted
+    private void batchFailed(List<FrameKey> keys, Throwable cause, Context context) {
+        lastPossession = null;
+        System.err.printf("Detection failed, dropping %d frames from %s: %s\n", keys.size(), keys.get(0), cause);
+        context.getCounter("ImageProcessing", "Errors").increment(1);
+        context.getCounter("ImageProcessing", "FailedFrames").increment(keys.size());
+    }
+
+    // possessions, images and records only hold the analysed frames, duplicates take the result before them
+    private void emit(List<FrameKey> keys, List<Boolean> duplicates, List<Team> possessions, List<Mat> images,
+            List<DetectionRecord> records, Context context) throws IOException, InterruptedException {
+        int analysed = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            Mat image = null;
+            if (!duplicates.get(i)) {
+                lastPossession = possessions.get(analysed);
+                lastRecord = records != null ? records.get(analysed) : null;
+                image = images.get(analysed);
+                analysed++;
+            }
+            // A frame that failed, or a duplicate of it, has no result to emit or cache
+            if (lastPossession == null) {
+                context.getCounter("ImageProcessing", "FailedFrames").increment(1);
+                continue;
+            }
+
+            // Emit the results
+            emit(keys.get(i), lastPossession, context);
+            reportToSampler(keys.get(i), lastPossession, context);
+            if (detectionOutput != null) {
+                detectionOutput.write(keys.get(i), lastRecord);
+            }
+            if (annotationSink != null && image != null && keys.get(i).getFrameIndex() % annotationSampleEvery == 0) {
+                long start = System.nanoTime();
+                annotationSink.write(keys.get(i), image);
+                timings.record(Stage.SAVE, start);
+                context.getCounter("Annotation", "FramesWritten").increment(1);
+            }
+            if (resultCache != null) {
+                resultCache.put(keys.get(i), lastRecord);
+            }
+        }
+    }
+
+    // Both the detections output and the result cache keep each frame's detections
+    private boolean keepsRecords() {
+        return detectionOutput != null || resultCache != null;
+    }
+
+    private void reportToSampler(FrameKey key, Team possession, Context context) {
+        if (!adaptiveSampling) {
+            return;
+        }
+        FrameSampler sampler = FrameSampler.forTask(context.getTaskAttemptID());
+        if (sampler != null) {
+            sampler.report(key.getVideoId(), (int) key.getFrameIndex(), possession.getId());
+        }
+    }
+
+    // Keys are reused by the record reader
+    private static FrameKey copy(FrameKey key) {
+        return new FrameKey(key.getVideoId(), key.getVideoHash(), key.getFrameIndex(), key.getTimestampMs());
+    }
+}
@@ -0,0 +1,106 @@
+package cdle.opencv;
+
+import org.apache.hadoop.conf.Configuration;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/* Cheap look at each frame before the detection (prefilter.enabled). Frames are shrunk to
+   a 32x18 thumbnail; frames with too little court colour (replays of the crowd, timeouts,
+   full screen graphics) are dropped, and frames whose luminance barely differs from the
+   last analysed frame of the same video reuse its result. */
+public class FramePrefilter {
+
+    public enum Verdict {
+        ANALYSE,   // run the detection
+        DUPLICATE, // reuse the result of the last analysed frame
+        NON_COURT  // not a view of the court, no result
+    }
+
+    private static final Size THUMBNAIL = new Size(32, 18);
+
+    private final double duplicateThreshold;
+    private final double minCourtRatio;
+    private final Scalar courtLow;
+    private final Scalar courtHigh;
+
+    private final Mat thumbnail = new Mat();
+    private final Mat hsv = new Mat();
+    private final Mat courtMask = new Mat();
+    private final Mat difference = new Mat();
+    private Mat luminance = new Mat();
+    private Mat lastLuminance = new Mat(); // empty until a frame of lastVideoId is analysed
+    private String lastVideoId;
+
+    public FramePrefilter(double duplicateThreshold, double minCourtRatio, Scalar courtLow, Scalar courtHigh) {
+        this.duplicateThreshold = duplicateThreshold;
+        this.minCourtRatio = minCourtRatio;
+        this.courtLow = courtLow;
+        this.courtHigh = courtHigh;
+    }
+
+    // null unless prefilter.enabled
+    public static FramePrefilter create(Configuration conf) {
+        if (!conf.getBoolean("prefilter.enabled", false)) {
+            return null;
+        }
+        return new FramePrefilter(conf.getDouble("prefilter.duplicate.threshold", 1.0),
+                conf.getDouble("prefilter.court.min.ratio", 0.2),
+                hsv(conf.get("prefilter.court.hsv.low", "5,30,100")),
+                hsv(conf.get("prefilter.court.hsv.high", "30,190,255")));
+    }
+
+    private static Scalar hsv(String value) {
+        String[] parts = value.split(",");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected an h,s,v colour, got " + value);
+        }
+        return new Scalar(Double.parseDouble(parts[0].trim()), Double.parseDouble(parts[1].trim()),
+                Double.parseDouble(parts[2].trim()));
+    }
+
+    public Verdict classify(String videoId, Mat image) {
+        if (!videoId.equals(lastVideoId)) {
+            lastVideoId = videoId;
+            lastLuminance.release();
+        }
+
+        Imgproc.resize(image, thumbnail, THUMBNAIL, 0, 0, Imgproc.INTER_AREA);
+
+        if (minCourtRatio > 0 && courtRatio() < minCourtRatio) {
+            return Verdict.NON_COURT;
+        }
+
+        Imgproc.cvtColor(thumbnail, luminance, Imgproc.COLOR_BGR2GRAY);
+        if (duplicateThreshold > 0 && !lastLuminance.empty()) {
+            Core.absdiff(luminance, lastLuminance, difference);
+            if (Core.mean(difference).val[0] <= duplicateThreshold) {
+                return Verdict.DUPLICATE;
+            }
+        }
+
+        // Later frames are compared with this one
+        Mat swap = lastLuminance;
+        lastLuminance = luminance;
+        luminance = swap;
+        return Verdict.ANALYSE;
+    }
+
+    // Share of the thumbnail within the court colour range
+    double courtRatio() {
+        Imgproc.cvtColor(thumbnail, hsv, Imgproc.COLOR_BGR2HSV);
+        Core.inRange(hsv, courtLow, courtHigh, courtMask);
+        return Core.countNonZero(courtMask) / (double) courtMask.total();
+    }
+
+    public void release() {
+        thumbnail.release();
+        hsv.release();
+        courtMask.release();
+        difference.release();
+        luminance.release();
+        lastLuminance.release();
+    }
+}
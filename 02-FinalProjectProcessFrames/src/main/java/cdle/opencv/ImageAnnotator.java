@@ -3,222 +3,429 @@ package cdle.opencv;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
-import org.opencv.core.MatOfFloat;
-import org.opencv.core.MatOfInt;
-import org.opencv.core.MatOfRect2d;
 import org.opencv.core.Point;
+import org.opencv.core.Rect;
 import org.opencv.core.Rect2d;
 import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 import org.opencv.dnn.Dnn;
-import org.opencv.dnn.Net;
-import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
-import org.opencv.utils.Converters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ImageAnnotator {
 
-    private Net net;                     // YOLO network for detection
-    private List<String> classNames;     // List of class names for YOLO
-    private String outputDir;            // Directory to save annotated images
+    private static final Logger LOG = LoggerFactory.getLogger(ImageAnnotator.class);
+
+    private final Detector detector;     // Finds the players
+    private boolean annotate = true;     // Draw the players and ball on the frames
+
+    // Shirt colour ranges in HSV
+    private static final Scalar RED_LOWER_MIN = new Scalar(0, 150, 150);
+    private static final Scalar RED_LOWER_MAX = new Scalar(10, 255, 255);
+    private static final Scalar RED_UPPER_MIN = new Scalar(160, 150, 150);
+    private static final Scalar RED_UPPER_MAX = new Scalar(180, 255, 255);
+    private static final Scalar YELLOW_MIN = new Scalar(20, 150, 150);
+    private static final Scalar YELLOW_MAX = new Scalar(30, 255, 255);
+
+    // Players of the current frame, and the scratch Mats of the shirt classification
+    private final FrameDetections detections = new FrameDetections();
+    private final Mat hsvRegion = new Mat();
+    private final Mat valueChannel = new Mat();
+    private final Mat colorMask = new Mat();
+
+    private static final Scalar ORANGE_MIN = new Scalar(5, 150, 150);
+    private static final Scalar ORANGE_MAX = new Scalar(15, 255, 255);
+
+    // Ball search (ball.search.mode), its scratch Mats and the ball of the previous frame
+    private boolean roiBallSearch;
+    private double ballRoiDilation = 0.5;
+    private double ballRoiWindow = 4.0;
+    private final Mat hsvBall = new Mat();
+    private final Mat maskOrange = new Mat();
+    private final Mat circles = new Mat();
+    private Rect2d lastBallBox;
+    private Rect2d closestBasketball;
+    private double closestBasketballDistance;
+
+    // Tracking mode, off unless setTracking is called
+    private PlayerTracker tracker;
+
+    // Ball search and tracking statistics, read by the mapper into counters
+    private long fullFrameSearches;
+    private long roiSearches;
+    private long roiHits;
+    private long fullFrameFallbacks;
+    private long keyframes;
+    private long trackedFrames;
+    private long trackingRedetections;
+
+    // Latency of the shirt colour and ball stages
+    private final StageTimings timings = new StageTimings();
+
+    public ImageAnnotator(String modelConfigPath, String modelWeightsPath, String classNamesPath) throws Exception {
+        // Load YOLO network and class names
+        this(new DarknetDetector(Dnn.readNetFromDarknet(modelConfigPath, modelWeightsPath),
+                Files.readAllLines(Paths.get(classNamesPath)), 416, "opencv", "cpu"));
+    }
 
-    public ImageAnnotator(String modelConfigPath, String modelWeightsPath, String classNamesPath, String outputDir) throws Exception {
-        // Load YOLO network
-        this.net = Dnn.readNetFromDarknet(modelConfigPath, modelWeightsPath);
-        this.net.setPreferableBackend(Dnn.DNN_BACKEND_OPENCV);
-        this.net.setPreferableTarget(Dnn.DNN_TARGET_CPU);
+    public ImageAnnotator(Detector detector) {
+        this.detector = detector;
+    }
 
-        // Load class names
-        this.classNames = Files.readAllLines(Paths.get(classNamesPath));
+    public Detector getDetector() {
+        return detector;
+    }
 
-        // Set output directory for annotated images
-        this.outputDir = outputDir;
+    // Frames are only drawn on when something saves them, see AnnotationSink
+    public void setAnnotate(boolean annotate) {
+        this.annotate = annotate;
     }
 
-    public String annotateAndDetect(String imagePath, Mat image) {
-        if (image.empty()) {
-            return "Unknown Team";
+    /* full: search the whole frame for the ball (default)
+       roi:  search around the players and the previous ball first, see detectBasketball */
+    public void setBallSearch(String mode, double roiDilation, double roiWindow) {
+        if (!mode.equals("full") && !mode.equals("roi")) {
+            throw new IllegalArgumentException("Unknown ball.search.mode: " + mode);
         }
+        this.roiBallSearch = mode.equals("roi");
+        this.ballRoiDilation = roiDilation;
+        this.ballRoiWindow = roiWindow;
+    }
 
-        try {
-            // Perform YOLO detections
-            List<Rect2d> playerBoxes = new ArrayList<>();
-            List<Float> confidences = new ArrayList<>();
-            getYoloDetections(image, playerBoxes, confidences);
-
-            // Apply NMS to filter detections
-            List<Rect2d> filteredPlayerBoxes = applyNMS(playerBoxes, confidences, 0.6f, 0.4f);
+    public long getFullFrameSearches() {
+        return fullFrameSearches;
+    }
 
-            // Annotate players and detect possession
-            annotatePlayers(filteredPlayerBoxes, image);
-            Rect2d basketballBox = detectBasketball(image, filteredPlayerBoxes);
-            if (basketballBox != null) {
-                annotateBasketball(basketballBox, image);
-            }
+    public long getRoiSearches() {
+        return roiSearches;
+    }
 
-            String possessingTeam = determinePossessingTeam(basketballBox, filteredPlayerBoxes, image);
+    public long getRoiHits() {
+        return roiHits;
+    }
 
-            // Save annotated image
-            saveAnnotatedImage(imagePath, image);
+    public long getFullFrameFallbacks() {
+        return fullFrameFallbacks;
+    }
 
-            return possessingTeam;
+    /* Detect players every keyframeInterval frames only, and track them in between. Frames
+       must then be passed in order, calling resetTracking whenever the sequence breaks. */
+    public void setTracking(int keyframeInterval, double minConfidence) {
+        this.tracker = new PlayerTracker(keyframeInterval, minConfidence);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "Unknown Team";
+    public void resetTracking() {
+        if (tracker != null) {
+            tracker.reset();
         }
     }
 
-    private void getYoloDetections(Mat image, List<Rect2d> playerBoxes, List<Float> confidences) {
-        Mat blob = null;
-        List<Mat> outputs = new ArrayList<>();
+    public long getKeyframes() {
+        return keyframes;
+    }
 
-        try {
-            blob = Dnn.blobFromImage(image, 1 / 255.0, new Size(416, 416), new Scalar(0, 0, 0), true, false);
-            this.net.setInput(blob);
+    public long getTrackedFrames() {
+        return trackedFrames;
+    }
+
+    public long getTrackingRedetections() {
+        return trackingRedetections;
+    }
+
+    public StageTimings getTimings() {
+        return timings;
+    }
+
+    public Team annotateAndDetect(String imagePath, Mat image) {
+        return annotateAndDetectBatch(Collections.singletonList(imagePath), Collections.singletonList(image)).get(0);
+    }
 
-            List<String> outputLayerNames = net.getUnconnectedOutLayersNames();
-            net.forward(outputs, outputLayerNames);
+    public List<Team> annotateAndDetectBatch(List<String> imagePaths, List<Mat> images) {
+        return annotateAndDetectBatch(imagePaths, images, null);
+    }
+
+    /* Runs a single forward pass for all the images, returns the possessing team of each image in order.
+       When records is not null, it also gets each image's detections, in the same order. Detector
+       errors are thrown, so they are never taken for frames without a possession; a frame whose
+       players or ball could not be processed gets a null team. */
+    public List<Team> annotateAndDetectBatch(List<String> imagePaths, List<Mat> images, List<DetectionRecord> records) {
+        List<Team> possessingTeams = new ArrayList<>(Collections.nCopies(images.size(), Team.UNKNOWN));
+        if (records != null) {
+            for (int i = 0; i < images.size(); i++) {
+                records.add(new DetectionRecord());
+            }
+        }
 
-            parseYoloResults(outputs, image, 0.5f, playerBoxes, confidences);
-        } finally {
-            if (blob != null) {
-                blob.release();
+        List<Mat> batch = new ArrayList<>();
+        List<Integer> batchIndices = new ArrayList<>();
+        for (int i = 0; i < images.size(); i++) {
+            if (!images.get(i).empty()) {
+                batch.add(images.get(i));
+                batchIndices.add(i);
             }
-            for (Mat output : outputs) {
-                output.release();
+        }
+        if (batch.isEmpty()) {
+            return possessingTeams;
+        }
+
+        if (tracker != null) {
+            for (int b = 0; b < batch.size(); b++) {
+                int i = batchIndices.get(b);
+                possessingTeams.set(i, trackAndDetect(imagePaths.get(i), batch.get(b), records == null ? null : records.get(i)));
             }
+            return possessingTeams;
+        }
+
+        // Perform YOLO detections, a failed forward pass fails the whole batch
+        List<List<Rect2d>> playerBoxes = new ArrayList<>();
+        List<List<Float>> confidences = new ArrayList<>();
+        detector.detect(batch, playerBoxes, confidences);
+
+        for (int b = 0; b < batch.size(); b++) {
+            int i = batchIndices.get(b);
+            possessingTeams.set(i, detectPossession(imagePaths.get(i), batch.get(b), playerBoxes.get(b), confidences.get(b),
+                    records == null ? null : records.get(i)));
         }
+        return possessingTeams;
     }
 
-    private void parseYoloResults(List<Mat> outputs, Mat image, float confThreshold, List<Rect2d> playerBoxes, List<Float> confidences) {
-        for (Mat result : outputs) {
-            for (int i = 0; i < result.rows(); i++) {
-                Mat row = result.row(i);
-                Mat scores = row.colRange(5, row.cols());
-                Core.MinMaxLocResult mm = Core.minMaxLoc(scores);
-
-                float confidence = (float) mm.maxVal;
-
-                if (confidence > confThreshold) {
-                    int centerX = (int) (row.get(0, 0)[0] * image.cols());
-                    int centerY = (int) (row.get(0, 1)[0] * image.rows());
-                    int width = (int) (row.get(0, 2)[0] * image.cols());
-                    int height = (int) (row.get(0, 3)[0] * image.rows());
-                    int x = centerX - width / 2;
-                    int y = centerY - height / 2;
-
-                    Rect2d box = new Rect2d(x, y, width, height);
-
-                    int classId = (int) mm.maxLoc.x;
-                    if (classNames.get(classId).equals("person")) {
-                        playerBoxes.add(box);
-                        confidences.add(confidence);
-                    }
-                }
+    // Tracking mode: YOLO on keyframes, or when the players were lost, optical flow in between
+    private Team trackAndDetect(String imagePath, Mat image, DetectionRecord record) {
+        List<Rect2d> detectedBoxes = null;
+        List<Float> detectedConfidences = null;
+        boolean tracked = false;
+        if (!tracker.needsKeyframe()) {
+            tracked = tracker.track(image, detections);
+            if (tracked) {
+                trackedFrames++;
+            } else {
+                trackingRedetections++;
+            }
+        }
+
+        if (!tracked) {
+            List<List<Rect2d>> playerBoxes = new ArrayList<>();
+            List<List<Float>> confidences = new ArrayList<>();
+            try {
+                detector.detect(Collections.singletonList(image), playerBoxes, confidences);
+            } catch (RuntimeException e) {
+                tracker.reset();
+                throw e;
             }
+            detectedBoxes = playerBoxes.get(0);
+            detectedConfidences = confidences.get(0);
+            tracker.keyframe(image);
+            keyframes++;
         }
+
+        return detectPossession(imagePath, image, detectedBoxes, detectedConfidences, record);
     }
 
-    private List<Rect2d> applyNMS(List<Rect2d> boxes, List<Float> confidences, float confThreshold, float nmsThreshold) {
-        MatOfFloat confidencesMat = new MatOfFloat(Converters.vector_float_to_Mat(confidences));
-        MatOfRect2d boxesMat = new MatOfRect2d(boxes.toArray(new Rect2d[0]));
-        MatOfInt indices = new MatOfInt();
+    /* detectedPlayerBoxes are classified into detections, null keeps the tracked players already there.
+       record, when not null, gets the frame's detections. */
+    private Team detectPossession(String imagePath, Mat image, List<Rect2d> detectedPlayerBoxes, List<Float> detectedConfidences,
+            DetectionRecord record) {
+        try {
+            // Classify the players and find the ball on the clean frame, before anything is drawn on it
+            long t = System.nanoTime();
+            if (detectedPlayerBoxes != null) {
+                classifyPlayers(detectedPlayerBoxes, detectedConfidences, image);
+                t = timings.record(Stage.SHIRT_COLOR, t);
+            }
+            Rect2d basketballBox = detectBasketball(image, detections.getBoxes());
+            timings.record(Stage.BALL, t);
+            Team possessingTeam = determinePossessingTeam(basketballBox);
 
-        Dnn.NMSBoxes(boxesMat, confidencesMat, confThreshold, nmsThreshold, indices);
+            if (record != null) {
+                record(record, image, basketballBox, possessingTeam);
+            }
 
-        List<Rect2d> filteredBoxes = new ArrayList<>();
-        for (int i = 0; i < indices.rows(); i++) {
-            int idx = (int) indices.get(i, 0)[0];
-            filteredBoxes.add(boxes.get(idx));
-        }
+            // Annotate players and ball, in place: the caller hands the frame to its AnnotationSink
+            if (annotate) {
+                annotatePlayers(image);
+                if (basketballBox != null) {
+                    annotateBasketball(basketballBox, image);
+                }
+            }
 
-        confidencesMat.release();
-        boxesMat.release();
-        indices.release();
+            return possessingTeam;
 
-        return filteredBoxes;
+        } catch (Exception e) {
+            // Not a frame without a possession: the caller drops it, and it is never cached
+            LOG.warn("Failed to detect the possession in {}: {}", imagePath, e.toString());
+            return null;
+        }
     }
 
-    private Rect2d detectBasketball(Mat image, List<Rect2d> playerBoxes) {
-        Mat hsvImage = new Mat();
-        Mat maskOrange = new Mat();
-        Mat circles = new Mat();
+    /* In roi mode the orange mask and circle search only cover the player boxes, dilated
+       by ball.roi.dilation of their size, and a window around the previous frame's ball.
+       Overlapping regions are merged so no pixel is searched twice. The whole frame is
+       only searched when no region finds a ball. Package-private for the benchmarks. */
+    Rect2d detectBasketball(Mat image, List<Rect2d> playerBoxes) {
+        // Possession needs a player to match the ball to
+        if (playerBoxes.isEmpty()) {
+            lastBallBox = null;
+            return null;
+        }
 
-        try {
-            Imgproc.cvtColor(image, hsvImage, Imgproc.COLOR_BGR2HSV);
+        // A region that finds nothing leaves these untouched, so the fallback starts clean
+        closestBasketball = null;
+        closestBasketballDistance = Double.MAX_VALUE;
+
+        Rect2d basketballBox = null;
+        if (roiBallSearch) {
+            roiSearches++;
+            for (Rect region : searchRegions(playerBoxes, image)) {
+                Mat regionImage = image.submat(region);
+                findBasketball(regionImage, region.tl(), image.rows(), playerBoxes);
+                regionImage.release();
+            }
+            basketballBox = closestBasketball;
+            if (basketballBox != null) {
+                roiHits++;
+            } else {
+                fullFrameFallbacks++;
+            }
+        }
+
+        if (basketballBox == null) {
+            fullFrameSearches++;
+            findBasketball(image, new Point(0, 0), image.rows(), playerBoxes);
+            basketballBox = closestBasketball;
+        }
 
-            Core.inRange(hsvImage, new Scalar(5, 150, 150), new Scalar(15, 255, 255), maskOrange);
+        lastBallBox = basketballBox;
+        return basketballBox;
+    }
 
-            Imgproc.GaussianBlur(maskOrange, maskOrange, new Size(9, 9), 2, 2);
+    // Searches one region, keeping in closestBasketball the circle closest to a player so far
+    private void findBasketball(Mat region, Point offset, int imageRows, List<Rect2d> playerBoxes) {
+        Imgproc.cvtColor(region, hsvBall, Imgproc.COLOR_BGR2HSV);
 
-            Imgproc.HoughCircles(maskOrange, circles, Imgproc.HOUGH_GRADIENT, 1, maskOrange.rows() / 8, 100, 20, 10, 50);
+        Core.inRange(hsvBall, ORANGE_MIN, ORANGE_MAX, maskOrange);
 
-            if (circles.cols() > 0) {
-                double minDistance = Double.MAX_VALUE;
-                Rect2d closestBasketball = null;
+        Imgproc.GaussianBlur(maskOrange, maskOrange, new Size(9, 9), 2, 2);
 
-                for (int i = 0; i < circles.cols(); i++) {
-                    double[] circle = circles.get(0, i);
-                    Point center = new Point(circle[0], circle[1]);
-                    int radius = (int) circle[2];
+        // Minimum distance between circles stays relative to the whole frame
+        Imgproc.HoughCircles(maskOrange, circles, Imgproc.HOUGH_GRADIENT, 1, imageRows / 8, 100, 20, 10, 50);
 
-                    Rect2d basketballBox = new Rect2d(center.x - radius, center.y - radius, radius * 2, radius * 2);
+        for (int i = 0; i < circles.cols(); i++) {
+            double[] circle = circles.get(0, i);
+            Point center = new Point(circle[0] + offset.x, circle[1] + offset.y);
+            int radius = (int) circle[2];
 
-                    for (Rect2d playerBox : playerBoxes) {
-                        Point playerCenter = new Point(playerBox.x + playerBox.width / 2.0, playerBox.y + playerBox.height / 2.0);
-                        double distance = calculateDistance(center, playerCenter);
+            for (Rect2d playerBox : playerBoxes) {
+                Point playerCenter = new Point(playerBox.x + playerBox.width / 2.0, playerBox.y + playerBox.height / 2.0);
+                double distance = calculateDistance(center, playerCenter);
 
-                        if (distance < minDistance) {
-                            minDistance = distance;
-                            closestBasketball = basketballBox;
-                        }
-                    }
+                if (distance < closestBasketballDistance) {
+                    closestBasketballDistance = distance;
+                    closestBasketball = new Rect2d(center.x - radius, center.y - radius, radius * 2, radius * 2);
                 }
+            }
+        }
+    }
+
+    // Dilated player boxes plus the predicted ball window, clipped to the image and merged where they overlap
+    private List<Rect> searchRegions(List<Rect2d> playerBoxes, Mat image) {
+        Rect bounds = new Rect(0, 0, image.cols(), image.rows());
+        List<Rect> regions = new ArrayList<>();
+        for (Rect2d box : playerBoxes) {
+            addRegion(regions, box, ballRoiDilation, bounds);
+        }
+        if (lastBallBox != null) {
+            // Window of ball.roi.window ball sizes around the last position
+            addRegion(regions, lastBallBox, (ballRoiWindow - 1) / 2.0, bounds);
+        }
 
-                return closestBasketball;
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size() && !merged; i++) {
+                for (int j = i + 1; j < regions.size() && !merged; j++) {
+                    Rect a = regions.get(i);
+                    Rect b = regions.get(j);
+                    if (a.x < b.x + b.width && b.x < a.x + a.width && a.y < b.y + b.height && b.y < a.y + a.height) {
+                        int x1 = Math.min(a.x, b.x);
+                        int y1 = Math.min(a.y, b.y);
+                        int x2 = Math.max(a.x + a.width, b.x + b.width);
+                        int y2 = Math.max(a.y + a.height, b.y + b.height);
+                        regions.set(i, new Rect(x1, y1, x2 - x1, y2 - y1));
+                        regions.remove(j);
+                        merged = true;
+                    }
+                }
             }
+        }
+        return regions;
+    }
 
-            return null;
-        } finally {
-            hsvImage.release();
-            maskOrange.release();
-            circles.release();
+    private static void addRegion(List<Rect> regions, Rect2d box, double margin, Rect bounds) {
+        int x1 = Math.max((int) (box.x - box.width * margin), bounds.x);
+        int y1 = Math.max((int) (box.y - box.height * margin), bounds.y);
+        int x2 = Math.min((int) (box.x + box.width * (1 + margin)), bounds.x + bounds.width);
+        int y2 = Math.min((int) (box.y + box.height * (1 + margin)), bounds.y + bounds.height);
+        if (x1 < x2 && y1 < y2) {
+            regions.add(new Rect(x1, y1, x2 - x1, y2 - y1));
         }
     }
 
-    private void annotatePlayers(List<Rect2d> boxes, Mat image) {
-        for (Rect2d box : boxes) {
+    // Clips each box to the image and classifies its team, once per frame
+    private void classifyPlayers(List<Rect2d> boxes, List<Float> confidences, Mat image) {
+        detections.clear();
+        for (int i = 0; i < boxes.size(); i++) {
+            Rect2d box = boxes.get(i);
             int x1 = Math.max((int) box.x, 0);
             int y1 = Math.max((int) box.y, 0);
             int x2 = Math.min((int) (box.x + box.width), image.cols());
             int y2 = Math.min((int) (box.y + box.height), image.rows());
 
             if (x1 >= x2 || y1 >= y2) {
-                System.err.println("Invalid bounding box dimensions. Skipping annotation.");
+                LOG.debug("Invalid bounding box dimensions. Skipping player.");
                 continue;
             }
 
             Mat shirtRegion = image.submat(y1, y2, x1, x2);
-            String team = detectShirtColor(shirtRegion);
-            Scalar color;
-
-            if (team.contains("Lakers")) {
-                color = new Scalar(0, 255, 255); 
-            }else if (team.contains("Trailblazers")) {
-                color = new Scalar(0, 0, 255); 
-            }else {
-                color = new Scalar(255, 0, 0);
-            }
+            detections.add(new Rect2d(x1, y1, x2 - x1, y2 - y1), confidences.get(i), detectShirtColor(shirtRegion));
+            shirtRegion.release();
+        }
+    }
 
-            Imgproc.rectangle(image, new Point(x1, y1), new Point(x2, y2), color, 2);
-            Imgproc.putText(image, team, new Point(x1, y1 - 10), Imgproc.FONT_HERSHEY_TRIPLEX, 0.8, color, 2);
+    private void record(DetectionRecord record, Mat image, Rect2d basketballBox, Team possessingTeam) {
+        int players = detections.size();
+        float[] boxes = new float[players * 4];
+        float[] confidences = new float[players];
+        byte[] teams = new byte[players];
+        for (int i = 0; i < players; i++) {
+            Rect2d box = detections.getBox(i);
+            boxes[i * 4] = (float) box.x;
+            boxes[i * 4 + 1] = (float) box.y;
+            boxes[i * 4 + 2] = (float) box.width;
+            boxes[i * 4 + 3] = (float) box.height;
+            confidences[i] = detections.getConfidence(i);
+            teams[i] = (byte) detections.getTeam(i).getId();
+        }
 
-            shirtRegion.release();
+        float[] ball = null;
+        if (basketballBox != null) {
+            ball = new float[] { (float) basketballBox.x, (float) basketballBox.y, (float) basketballBox.width, (float) basketballBox.height };
+        }
+        record.set(image.cols(), image.rows(), players, boxes, confidences, teams, ball, possessingTeam);
+    }
+
+    private void annotatePlayers(Mat image) {
+        for (int i = 0; i < detections.size(); i++) {
+            Rect2d box = detections.getBox(i);
+            Team team = detections.getTeam(i);
+
+            Imgproc.rectangle(image, box.tl(), box.br(), team.getColor(), 2);
+            Imgproc.putText(image, team.getLabel(), new Point(box.x, box.y - 10), Imgproc.FONT_HERSHEY_TRIPLEX, 0.8, team.getColor(), 2);
         }
     }
 
@@ -229,65 +436,50 @@ public class ImageAnnotator {
         }
     }
 
-    private String detectShirtColor(Mat region) {
-        Mat hsvRegion = new Mat();
+    // Package-private for the benchmarks
+    Team detectShirtColor(Mat region) {
         Imgproc.cvtColor(region, hsvRegion, Imgproc.COLOR_BGR2HSV);
 
-        List<Mat> hsvChannels = new ArrayList<>();
-        Core.split(hsvRegion, hsvChannels);
-        Imgproc.equalizeHist(hsvChannels.get(2), hsvChannels.get(2));
-        Core.merge(hsvChannels, hsvRegion);
-        for (Mat channel : hsvChannels) {
-            channel.release();
-        }
-
-        Mat maskRed = new Mat();
-        Mat maskYellow = new Mat();
-
-        try {
-            Mat maskRedLower = new Mat();
-            Mat maskRedUpper = new Mat();
-            Core.inRange(hsvRegion, new Scalar(0, 150, 150), new Scalar(10, 255, 255), maskRedLower);
-            Core.inRange(hsvRegion, new Scalar(160, 150, 150), new Scalar(180, 255, 255), maskRedUpper);
-            Core.addWeighted(maskRedLower, 1.0, maskRedUpper, 1.0, 0.0, maskRed);
-            maskRedLower.release();
-            maskRedUpper.release();
+        // Equalize the value channel in place
+        Core.extractChannel(hsvRegion, valueChannel, 2);
+        Imgproc.equalizeHist(valueChannel, valueChannel);
+        Core.insertChannel(valueChannel, hsvRegion, 2);
 
-            Core.inRange(hsvRegion, new Scalar(20, 150, 150), new Scalar(30, 255, 255), maskYellow);
+        // The two red hue ranges do not overlap, so their counts add up
+        Core.inRange(hsvRegion, RED_LOWER_MIN, RED_LOWER_MAX, colorMask);
+        int redPixels = Core.countNonZero(colorMask);
+        Core.inRange(hsvRegion, RED_UPPER_MIN, RED_UPPER_MAX, colorMask);
+        redPixels += Core.countNonZero(colorMask);
 
-            int redPixels = Core.countNonZero(maskRed);
-            int yellowPixels = Core.countNonZero(maskYellow);
+        Core.inRange(hsvRegion, YELLOW_MIN, YELLOW_MAX, colorMask);
+        int yellowPixels = Core.countNonZero(colorMask);
 
-            int margin = 100;
+        int margin = 100;
 
-            if (redPixels > yellowPixels + margin) {
-                return "Trailblazers (Red)";
-            } else if (yellowPixels > redPixels + margin) {
-                return "Lakers (Yellow)";
-            } else {
-                return "Unknown Team";
-            }
-        } finally {
-            hsvRegion.release();
-            maskRed.release();
-            maskYellow.release();
+        if (redPixels > yellowPixels + margin) {
+            return Team.TRAILBLAZERS;
+        } else if (yellowPixels > redPixels + margin) {
+            return Team.LAKERS;
+        } else {
+            return Team.UNKNOWN;
         }
     }
 
-    private String determinePossessingTeam(Rect2d basketballBox, List<Rect2d> playerBoxes, Mat image) {
+    private Team determinePossessingTeam(Rect2d basketballBox) {
         if (basketballBox == null) {
-            return "Unknown Team";
+            return Team.UNKNOWN;
         }
 
         double minDistance = Double.MAX_VALUE;
-        String possessingTeam = "Unknown Team";
+        Team possessingTeam = Team.UNKNOWN;
 
         Point ballCenter = new Point(
                 basketballBox.x + basketballBox.width / 2.0,
                 basketballBox.y + basketballBox.height / 2.0
         );
 
-        for (Rect2d playerBox : playerBoxes) {
+        for (int i = 0; i < detections.size(); i++) {
+            Rect2d playerBox = detections.getBox(i);
             Point playerCenter = new Point(
                     playerBox.x + playerBox.width / 2.0,
                     playerBox.y + playerBox.height / 2.0
@@ -297,26 +489,14 @@ public class ImageAnnotator {
 
             if (distance < minDistance) {
                 minDistance = distance;
-
-                Mat region = image.submat(
-                        (int) playerBox.y, (int) (playerBox.y + playerBox.height),
-                        (int) playerBox.x, (int) (playerBox.x + playerBox.width)
-                );
-                possessingTeam = detectShirtColor(region);
-                region.release();
+                possessingTeam = detections.getTeam(i);
             }
         }
-        System.out.println("Possessisdng team: " + possessingTeam);
+        LOG.debug("Possessing team: {}", possessingTeam.getLabel());
         return possessingTeam;
     }
 
     private double calculateDistance(Point p1, Point p2) {
         return Math.sqrt(Math.pow(p1.x - p2.x, 2) + Math.pow(p1.y - p2.y, 2));
     }
-
-    private void saveAnnotatedImage(String imagePath, Mat image) {
-        String outputFilePath = outputDir.replace("file://", "") + "/" + imagePath + "_annotated.png";
-        Imgcodecs.imwrite(outputFilePath, image);
-        System.out.println("Annotated image saved: " + outputFilePath);
-    }
 }
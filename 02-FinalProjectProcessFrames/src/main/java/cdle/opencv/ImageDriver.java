@@ -1,15 +1,25 @@
 package cdle.opencv;
 
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.VLongWritable;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobID;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
@@ -19,10 +29,15 @@ import org.apache.hadoop.util.ToolRunner;
 
 public class ImageDriver extends Configured implements Tool {
 
+    // Settings holding the paths of the model files
+    public static final String[] MODEL_FILES = { "yolo.model.config", "yolo.model.weights", "yolo.class.names" };
+
     @Override
     public int run(String[] args) throws Exception {
         if (args.length <= 2) {
             System.err.println("Usage: ImageDriver <input path> <output path> <num reducers>");
+            System.err.println("  <input path> holds frame SequenceFiles, or videos when pipeline.fused is true");
+            System.err.println("  possession.output.mode=counts|timeline selects frame counts per team or timed possession segments");
             return -1;
         }
 
@@ -30,30 +45,80 @@ public class ImageDriver extends Configured implements Tool {
         Configuration conf = getConf();
         conf.set("image.output.path", args[1]);
 
+        // Fused mode reads the videos directly and hands decoded frames to the mapper
+        boolean fused = conf.getBoolean("pipeline.fused", false);
+        if (fused) {
+            conf.set("frames.codec", "none");
+        }
+
+        // A timeline is per video name and content hash, so same-named videos from different folders stay apart
+        if (fused && conf.get("possession.output.mode", "counts").equals("timeline") && conf.get("frames.content.hash") == null) {
+            conf.setBoolean("frames.content.hash", true);
+        }
+
+        // The adaptive sampler gets its feedback from the mapper, which only shares the task with the reader when fused
+        if (conf.getBoolean("sampling.adaptive", false)) {
+            if (!fused) {
+                System.err.println("sampling.adaptive needs pipeline.fused, sampling every frames.interval.seconds.");
+                conf.setBoolean("sampling.adaptive", false);
+            } else if (!conf.get("possession.output.mode", "counts").equals("timeline")) {
+                System.err.println("sampling.adaptive: samples are no longer evenly spaced, frame counts are not times.");
+            }
+        }
+
+        // Hashing the model files once here, instead of in every task
+        if (!conf.get("cache.dir", "").isEmpty()) {
+            conf.set("cache.fingerprint", ResultCache.fingerprint(conf));
+        }
+
         // Create job
         Job job = Job.getInstance(conf);
         job.setJarByClass(ImageDriver.class);
         job.setJobName("Ball Possession Analysis");
 
+        // Ship the model files to the workers, instead of expecting a copy on every node
+        if (conf.getBoolean("yolo.model.distribute", false)) {
+            distributeModelFiles(job);
+        }
+
         // Set input/output paths
         FileInputFormat.addInputPath(job, new Path(args[0]));
         FileOutputFormat.setOutputPath(job, new Path(args[1] + "_logs"));
 
         // Set input/output formats
-        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setInputFormatClass(fused ? VideoInputFormat.fromConfiguration(conf) : SequenceFileInputFormat.class);
         job.setOutputFormatClass(TextOutputFormat.class);
 
-        // Set mapper
-        job.setMapperClass(ImageMapper.class);
+        String outputMode = conf.get("possession.output.mode", "counts");
+        if (outputMode.equals("timeline")) {
+            // Secondary sort: each reduce call gets one video, its frames in timestamp order
+            job.setMapperClass(PossessionTimelineMapper.class);
+            job.setReducerClass(PossessionTimelineReducer.class);
+            job.setPartitionerClass(VideoPartitioner.class);
+            job.setGroupingComparatorClass(VideoGroupingComparator.class);
+
+            job.setMapOutputKeyClass(FrameKey.class);
+            job.setMapOutputValueClass(VIntWritable.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(Text.class);
+        } else if (outputMode.equals("counts")) {
+            // Set mapper
+            job.setMapperClass(ImageMapper.class);
 
-        // Set reducer
-        job.setReducerClass(ImageReducer.class);
+            // Set combiner and reducer, team ids are summed on the map side and sorted in serialized form
+            job.setCombinerClass(TeamCountCombiner.class);
+            job.setReducerClass(ImageReducer.class);
+            job.setSortComparatorClass(TeamIdComparator.class);
 
-        // Set output key/value classes
-        job.setMapOutputKeyClass(Text.class);
-        job.setMapOutputValueClass(LongWritable.class);
-        job.setOutputKeyClass(Text.class);
-        job.setOutputValueClass(LongWritable.class);
+            // Set output key/value classes
+            job.setMapOutputKeyClass(VIntWritable.class);
+            job.setMapOutputValueClass(VLongWritable.class);
+            job.setOutputKeyClass(Text.class);
+            job.setOutputValueClass(LongWritable.class);
+        } else {
+            System.err.println("Unknown possession.output.mode: " + outputMode);
+            return -1;
+        }
 
         // No reducer needed
         job.setNumReduceTasks(Integer.parseInt(args[2]));
@@ -61,6 +126,7 @@ public class ImageDriver extends Configured implements Tool {
 
         // Run the job and wait for completion
         boolean success = job.waitForCompletion(true);
+        deleteFailedAttempts(conf);
         if (success) {
             Path fullPath = new Path(args[1]);
             Path parentPath = fullPath.getParent();
@@ -69,12 +135,98 @@ public class ImageDriver extends Configured implements Tool {
             String finalOutputPath = new Path(parentPath, "Possession.txt").toString();
 
             mergeOutputFiles(conf, args[1] + "_logs", finalOutputPath);
+            mergeLatency(conf, job.getJobID(), new Path(parentPath, "Latency.txt"));
             return 0;
         } else {
             return 1;
         }
     }
 
+    /* Adds the model files to the distributed cache, linked under their file names (see
+       FrameMapper). Paths without a scheme are local files, as they always were; when the
+       job runs on another file system they are first uploaded to yolo.model.upload.dir,
+       once, and reused while the local file is not newer. */
+    private void distributeModelFiles(Job job) throws Exception {
+        Configuration conf = job.getConfiguration();
+        FileSystem localFs = FileSystem.getLocal(conf);
+        FileSystem defaultFs = FileSystem.get(conf);
+        Path uploadDir = new Path(conf.get("yolo.model.upload.dir", ".yolo-models"));
+
+        for (String model : MODEL_FILES) {
+            if (conf.get(model, "").isEmpty()) {
+                continue;
+            }
+            Path path = new Path(conf.get(model));
+            FileSystem fs = path.toUri().getScheme() == null ? localFs : path.getFileSystem(conf);
+            path = fs.makeQualified(path);
+
+            if (fs.getUri().equals(localFs.getUri()) && !defaultFs.getUri().equals(localFs.getUri())) {
+                FileStatus local = localFs.getFileStatus(path);
+                Path uploaded = defaultFs.makeQualified(new Path(uploadDir, path.getName()));
+                if (!defaultFs.exists(uploaded) || defaultFs.getFileStatus(uploaded).getLen() != local.getLen()
+                        || defaultFs.getFileStatus(uploaded).getModificationTime() < local.getModificationTime()) {
+                    System.out.printf("Uploading %s to %s\n", path, uploaded);
+                    FileUtil.copy(localFs, path, defaultFs, uploaded, false, true, conf);
+                }
+                path = uploaded;
+            }
+
+            job.addCacheFile(new URI(path.toUri().toString() + "#" + path.getName()));
+        }
+    }
+
+    // Detections of failed or killed attempts stay under their pending _ names, see DetectionOutput
+    private void deleteFailedAttempts(Configuration conf) throws IOException {
+        if (conf.get("detections.output.dir", "").isEmpty()) {
+            return;
+        }
+        Path directory = new Path(conf.get("detections.output.dir"));
+        FileSystem fs = directory.getFileSystem(conf);
+        if (!fs.exists(directory)) {
+            return;
+        }
+        for (FileStatus file : fs.listStatus(directory, path -> path.getName().startsWith("_attempt_"))) {
+            fs.delete(file.getPath(), false);
+        }
+    }
+
+    // Per-task latency summaries of a job, see FrameMapper; each job has its own folder, so runs are never mixed
+    public static Path latencyDirectory(Configuration conf, JobID jobId) {
+        String directory = conf.get("latency.output.dir", "");
+        Path root = directory.isEmpty() ? new Path(conf.get("image.output.path"), "latency") : new Path(directory);
+        return new Path(root, jobId.toString());
+    }
+
+    /* Percentiles of every stage over all the tasks and the largest peak native memory of a
+       task's frames, printed and written next to Possession.txt. The job's summaries are
+       deleted once merged. */
+    private void mergeLatency(Configuration conf, JobID jobId, Path latencyFile) throws Exception {
+        Path directory = latencyDirectory(conf, jobId);
+        FileSystem summaryFs = directory.getFileSystem(conf);
+        StageTimings timings = StageTimings.readSummaries(summaryFs, directory);
+
+        PrintWriter console = new PrintWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        writeLatency(timings, console);
+        console.flush();
+
+        FileSystem fs = latencyFile.getFileSystem(conf);
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(fs.create(latencyFile, true), StandardCharsets.UTF_8))) {
+            writeLatency(timings, out);
+        }
+
+        // The folder of the job, and the latency folder too once no other job's summaries are left in it
+        summaryFs.delete(directory, true);
+        Path root = directory.getParent();
+        if (summaryFs.exists(root) && summaryFs.listStatus(root).length == 0) {
+            summaryFs.delete(root, false);
+        }
+    }
+
+    private static void writeLatency(StageTimings timings, PrintWriter out) {
+        timings.writeTable(out);
+        out.printf("\nPeak frame native memory of a task: %.1f MB\n", timings.getPeakNativeBytes() / (1024.0 * 1024.0));
+    }
+
     private void mergeOutputFiles(Configuration conf, String outputDirPath, String finalOutputPath) throws Exception {
         // Use the local filesystem
         FileSystem localFs = FileSystem.getLocal(conf);
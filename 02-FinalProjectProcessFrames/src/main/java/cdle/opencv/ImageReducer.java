@@ -4,21 +4,28 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.VLongWritable;
 import org.apache.hadoop.mapreduce.Reducer;
 
-public class ImageReducer extends Reducer<Text, LongWritable, Text, LongWritable> {
+public class ImageReducer extends Reducer<VIntWritable, VLongWritable, Text, LongWritable> {
+
+    private final Text team = new Text();
+    private final LongWritable possessionTime = new LongWritable();
 
     @Override
-    protected void reduce(Text key, Iterable<LongWritable> values, Context context)
+    protected void reduce(VIntWritable key, Iterable<VLongWritable> values, Context context)
             throws IOException, InterruptedException {
 
         // Sum up all possession counts for the given team
         long totalPossessionTime = 0;
-        for (LongWritable value : values) {
+        for (VLongWritable value : values) {
             totalPossessionTime += value.get();
         }
 
         // Emit the aggregated result
-        context.write(key, new LongWritable(totalPossessionTime));
+        team.set(Team.fromId(key.get()).getLabel());
+        possessionTime.set(totalPossessionTime);
+        context.write(team, possessionTime);
     }
 }
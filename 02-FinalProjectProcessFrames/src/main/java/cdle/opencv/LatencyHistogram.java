@@ -0,0 +1,111 @@
+package cdle.opencv;
+
+import java.util.Arrays;
+
+/* Latency histogram in the spirit of HdrHistogram: values (nanoseconds) fall in
+   power-of-two ranges, each split in 16 linear sub-buckets, so a value is known within
+   1/16 of itself over the whole range, for a fixed few KiB of counts and no allocation
+   when recording. Not thread safe: each thread records into its own, merged afterwards. */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[index(nanos)]++;
+        count++;
+        totalNanos += nanos;
+        maxNanos = Math.max(maxNanos, nanos);
+    }
+
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        totalNanos += other.totalNanos;
+        maxNanos = Math.max(maxNanos, other.maxNanos);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public long getMeanNanos() {
+        return count == 0 ? 0 : totalNanos / count;
+    }
+
+    // Highest value of the bucket holding the percentile-th value, 0 when empty
+    public long getPercentileNanos(double percentile) {
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestValue(i), maxNanos);
+            }
+        }
+        return 0;
+    }
+
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> exponent) - SUB_BUCKETS;
+        return SUB_BUCKETS + exponent * SUB_BUCKETS + subBucket;
+    }
+
+    private static long highestValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << exponent) - 1;
+    }
+
+    // "total max index:count ...", the non-empty buckets only, read back by parse
+    public String toBucketString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(totalNanos).append(' ').append(maxNanos);
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                builder.append(' ').append(i).append(':').append(counts[i]);
+            }
+        }
+        return builder.toString();
+    }
+
+    public static LatencyHistogram parse(String buckets) {
+        String[] fields = buckets.trim().split(" ");
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.totalNanos = Long.parseLong(fields[0]);
+        histogram.maxNanos = Long.parseLong(fields[1]);
+        for (String field : Arrays.copyOfRange(fields, 2, fields.length)) {
+            int separator = field.indexOf(':');
+            long bucketCount = Long.parseLong(field.substring(separator + 1));
+            histogram.counts[Integer.parseInt(field.substring(0, separator))] += bucketCount;
+            histogram.count += bucketCount;
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,326 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/* Possession of a game while it is being recorded, outside MapReduce:
+     LivePossession <segment directory | growing video file> [totals file]
+
+   A directory is watched for segments (live.segment.extensions, e.g. HLS/DASH style .ts or
+   .mp4 chunks) named in playback order; a segment is read once its size stops changing
+   between two polls, or a later one appears. A single file is reopened on every poll and
+   read from the first frame not read yet, for containers readable while they grow
+   (MPEG-TS, fragmented MP4).
+
+   Frames are sampled every frames.interval.seconds of stream time and go through the
+   FramePrefilter (when enabled) and the ImageAnnotator one at a time; the prefilter compares
+   frames across segments, as they are one stream. With tracking.enabled the tracker only
+   follows consecutive frames, so it starts over at every sample unless frames.interval.seconds
+   samples every frame. Each sample's team
+   holds the ball until the next sample, as in the timeline output, and the running totals
+   are printed and written to the totals file every live.report.seconds. Samples more than
+   live.max.lag.seconds behind their arrival are skipped, so the totals stay close to live
+   on a slow machine; their time is not given to any team. */
+public class LivePossession extends Configured implements Tool {
+
+    static {
+        Utils.loadNative();
+    }
+
+    private Configuration conf;
+    private ImageAnnotator annotator;
+    private FramePrefilter prefilter;
+    private File totalsFile;
+    private String stream; // the directory or file followed
+
+    private float intervalSeconds;
+    private long pollMillis;
+    private long maxLagNanos;
+    private long reportNanos;
+    private long idleNanos;
+
+    // Running totals, the team of the last sample holds the ball until the next one
+    private final Map<Team, Long> totalsMs = new EnumMap<>(Team.class);
+    private Team lastTeam; // null after a skipped or non-court sample
+    private long lastSampleMs;
+    private Team lastKnownTeam;
+    private long changes;
+    private long nextSampleMs; // stream time of the next sample
+
+    private long analysed; // run through the detector
+    private long reused; // prefilter duplicates, given the previous sample's team
+    private long nonCourt;
+    private long failed; // failed detections, held by no team
+    private long skipped;
+    private boolean lastAnalysed; // the previous sample went through the detector
+    private final LatencyHistogram lag = new LatencyHistogram(); // arrival to result, per sample not skipped
+    private long lastReportNanos;
+    private long reportedSamples = -1; // samples() at the last report
+    private long lastFrameNanos;
+    private long framesDecoded;
+
+    public LivePossession() {
+    }
+
+    // Runs with the given annotator instead of loading the yolo.* model, for the tests
+    LivePossession(ImageAnnotator annotator) {
+        this.annotator = annotator;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new LivePossession(), args));
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LivePossession <segment directory | growing video file> [totals file]");
+            return -1;
+        }
+        conf = getConf();
+        File input = new File(args[0]);
+        totalsFile = args.length > 1 ? new File(args[1]) : null;
+        stream = input.getName();
+
+        intervalSeconds = conf.getFloat("frames.interval.seconds", 1.0f);
+        pollMillis = conf.getLong("live.poll.millis", 500);
+        maxLagNanos = TimeUnit.MILLISECONDS.toNanos((long) (conf.getFloat("live.max.lag.seconds", 5f) * 1000));
+        reportNanos = TimeUnit.MILLISECONDS.toNanos((long) (conf.getFloat("live.report.seconds", 5f) * 1000));
+        idleNanos = TimeUnit.MILLISECONDS.toNanos((long) (conf.getFloat("live.idle.seconds", 0f) * 1000));
+
+        ModelRegistry.PooledNet net = null;
+        if (annotator == null) {
+            net = ModelRegistry.acquire(conf.get("yolo.model.format", "darknet"),
+                    conf.get("yolo.model.config"), conf.get("yolo.model.weights"));
+            annotator = FrameMapper.createAnnotator(conf, net);
+        }
+        prefilter = FramePrefilter.create(conf);
+        System.out.printf("[%s] Detector: %s\n", LivePossession.class.getName(), annotator.getDetector().getName());
+
+        lastFrameNanos = System.nanoTime();
+        lastReportNanos = lastFrameNanos;
+        try {
+            if (input.isDirectory()) {
+                watchDirectory(input);
+            } else {
+                tailFile(input);
+            }
+        } finally {
+            report();
+            if (prefilter != null) {
+                prefilter.release();
+            }
+            if (net != null) {
+                ModelRegistry.release(net);
+            }
+        }
+        System.out.printf("[%s] %d samples analysed, %d duplicates, %d not court, %d failed, %d skipped, "
+                + "%d frames decoded; lag p50 %d ms, p99 %d ms, max %d ms\n", LivePossession.class.getName(), analysed,
+                reused, nonCourt, failed, skipped, framesDecoded,
+                TimeUnit.NANOSECONDS.toMillis(lag.getPercentileNanos(50)),
+                TimeUnit.NANOSECONDS.toMillis(lag.getPercentileNanos(99)),
+                TimeUnit.NANOSECONDS.toMillis(lag.getMaxNanos()));
+        return 0;
+    }
+
+    private void watchDirectory(File directory) throws IOException, InterruptedException {
+        List<String> extensions = Arrays.asList(conf.getTrimmedStrings("live.segment.extensions", ".ts", ".mp4", ".mkv", ".avi"));
+        Map<String, Long> sizes = new HashMap<>(); // segment -> size at the previous poll
+        Set<String> done = new HashSet<>();
+        long streamOffsetMs = 0;
+
+        while (!idle()) {
+            File[] files = directory.listFiles((dir, name) -> extensions.stream().anyMatch(name::endsWith));
+            List<File> segments = new ArrayList<>();
+            for (File file : files == null ? new File[0] : files) {
+                if (!done.contains(file.getName())) {
+                    segments.add(file);
+                }
+            }
+            segments.sort((a, b) -> a.getName().compareTo(b.getName()));
+
+            for (int i = 0; i < segments.size(); i++) {
+                File segment = segments.get(i);
+                long size = segment.length();
+                Long previousSize = sizes.put(segment.getName(), size);
+                boolean complete = size > 0 && (i < segments.size() - 1 || Long.valueOf(size).equals(previousSize));
+                if (!complete) {
+                    break; // later segments wait for this one
+                }
+                done.add(segment.getName());
+                sizes.remove(segment.getName());
+                streamOffsetMs += readSegment(segment, streamOffsetMs, System.nanoTime());
+            }
+            maybeReport();
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    // Reads a complete segment starting at streamOffsetMs of the stream, returns its duration
+    private long readSegment(File segment, long streamOffsetMs, long arrivedNanos) throws IOException {
+        try (VideoFrameSource source = new VideoFrameSource(segment.getPath())) {
+            double fps = source.getFps() > 0 ? source.getFps() : 25;
+            int step = VideoInputFormat.frameStep(fps, intervalSeconds);
+            int frame = (int) Math.max(0, Math.ceil((nextSampleMs - streamOffsetMs) * fps / 1000));
+            int read = 0;
+            for (; source.read(frame); frame += step) {
+                // The tracker cannot follow players across segments
+                boolean follows = step == 1 && read > 0;
+                read = frame + 1;
+                sample(segment.getName(), source, streamOffsetMs + source.timestampMs(frame), arrivedNanos, follows);
+            }
+            framesDecoded += source.getFramesDecoded();
+            nextSampleMs = streamOffsetMs + Math.round(frame * 1000.0 / fps);
+            return Math.round(Math.max(source.getTotalFrames(), read) * 1000.0 / fps);
+        }
+    }
+
+    private void tailFile(File file) throws IOException, InterruptedException {
+        int nextFrame = 0;
+        long size = -1;
+        while (!idle()) {
+            if (file.length() != size && file.length() > 0) {
+                size = file.length();
+                long arrivedNanos = System.nanoTime();
+                // Reopened to see the new frames; the decoder resumes from the keyframe before nextFrame
+                try (VideoFrameSource source = new VideoFrameSource(file.getPath())) {
+                    double fps = source.getFps() > 0 ? source.getFps() : 25;
+                    int step = VideoInputFormat.frameStep(fps, intervalSeconds);
+                    if (nextFrame > 0) {
+                        source.seek(nextFrame);
+                    }
+                    boolean follows = false; // the tracker starts over after a reopen
+                    for (; source.read(nextFrame); nextFrame += step) {
+                        sample(file.getName(), source, source.timestampMs(nextFrame), arrivedNanos, follows);
+                        follows = step == 1;
+                    }
+                    framesDecoded += source.getFramesDecoded();
+                } catch (IOException e) {
+                    // Not readable yet, e.g. the header is still being written
+                    System.err.printf("[%s] %s\n", LivePossession.class.getName(), e.getMessage());
+                }
+            }
+            maybeReport();
+            Thread.sleep(pollMillis);
+        }
+    }
+
+    // follows: the frame comes right after the previous sample's frame
+    private void sample(String name, VideoFrameSource source, long streamMs, long arrivedNanos, boolean follows)
+            throws IOException {
+        lastFrameNanos = System.nanoTime();
+        if (lastFrameNanos - arrivedNanos > maxLagNanos) {
+            skipped++;
+            lastAnalysed = false;
+            advance(null, streamMs);
+            return;
+        }
+
+        FramePrefilter.Verdict verdict = prefilter != null
+                ? prefilter.classify(stream, source.getFrame()) : FramePrefilter.Verdict.ANALYSE;
+        Team team;
+        if (verdict == FramePrefilter.Verdict.NON_COURT) {
+            nonCourt++;
+            lastAnalysed = false;
+            team = null;
+        } else if (verdict == FramePrefilter.Verdict.DUPLICATE && lastTeam != null) {
+            reused++;
+            lastAnalysed = false;
+            team = lastTeam;
+        } else {
+            // Tracking needs the detector to have seen the previous frame
+            if (!follows || !lastAnalysed) {
+                annotator.resetTracking();
+            }
+            try {
+                team = annotator.annotateAndDetect(name + "@" + streamMs, source.getFrame());
+                if (team != null) {
+                    analysed++;
+                } else {
+                    failed++;
+                }
+                lastAnalysed = true;
+            } catch (RuntimeException e) {
+                System.err.printf("[%s] Detection failed at %.1fs: %s\n", LivePossession.class.getName(),
+                        streamMs / 1000.0, e);
+                failed++;
+                lastAnalysed = false;
+                team = null;
+            }
+        }
+        lag.record(System.nanoTime() - arrivedNanos);
+
+        if (team != null && team != Team.UNKNOWN && lastKnownTeam != null && team != lastKnownTeam) {
+            changes++;
+            System.out.printf("[%s] %.1fs %s -> %s\n", LivePossession.class.getName(), streamMs / 1000.0,
+                    lastKnownTeam.getLabel(), team.getLabel());
+        }
+        if (team != null && team != Team.UNKNOWN) {
+            lastKnownTeam = team;
+        }
+        advance(team, streamMs);
+        maybeReport();
+    }
+
+    // The last team holds the ball until this sample
+    private void advance(Team team, long streamMs) {
+        if (lastTeam != null && streamMs > lastSampleMs) {
+            totalsMs.merge(lastTeam, streamMs - lastSampleMs, Long::sum);
+        }
+        lastTeam = team;
+        lastSampleMs = streamMs;
+    }
+
+    private boolean idle() {
+        return idleNanos > 0 && System.nanoTime() - lastFrameNanos > idleNanos;
+    }
+
+    private void maybeReport() throws IOException {
+        // Nothing new to print while waiting for the stream
+        if (System.nanoTime() - lastReportNanos >= reportNanos && samples() != reportedSamples) {
+            report();
+        }
+    }
+
+    private long samples() {
+        return analysed + reused + nonCourt + failed + skipped;
+    }
+
+    // Prints the totals and replaces the totals file, in the Possession.txt format
+    private void report() throws IOException {
+        lastReportNanos = System.nanoTime();
+        reportedSamples = samples();
+        StringBuilder totals = new StringBuilder();
+        for (Map.Entry<Team, Long> total : totalsMs.entrySet()) {
+            totals.append(String.format("%s\t%.1f\n", total.getKey().getLabel(), total.getValue() / 1000.0));
+        }
+        System.out.printf("[%s] %.1fs of stream, %d changes, lag p50 %d ms\n%s", LivePossession.class.getName(),
+                lastSampleMs / 1000.0, changes, TimeUnit.NANOSECONDS.toMillis(lag.getPercentileNanos(50)), totals);
+
+        if (totalsFile != null) {
+            File pending = new File(totalsFile.getPath() + ".tmp");
+            try (PrintWriter writer = new PrintWriter(pending, "UTF-8")) {
+                writer.print(totals);
+            }
+            Files.move(pending.toPath(), totalsFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
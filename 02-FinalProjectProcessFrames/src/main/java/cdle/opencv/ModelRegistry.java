@@ -0,0 +1,82 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+/* Detection networks loaded once per JVM. Parsing yolov3.weights takes seconds, so the
+   networks of a finished task are kept and handed to the next task the JVM runs (all of
+   them with the local runner, or in uber mode). A Net is not thread safe, so each one is
+   leased to a single annotator at a time; concurrent leases load more networks. */
+public final class ModelRegistry {
+
+    // Idle networks per model, keyed by the canonical paths of its files
+    private static final Map<String, Deque<Net>> idleNets = new HashMap<>();
+
+    public static final class PooledNet {
+        private final String model;
+        private final Net net;
+        private final long loadMillis;
+
+        private PooledNet(String model, Net net, long loadMillis) {
+            this.model = model;
+            this.net = net;
+            this.loadMillis = loadMillis;
+        }
+
+        public Net getNet() {
+            return net;
+        }
+
+        // Whether the network was loaded for this lease, rather than reused
+        public boolean isLoaded() {
+            return loadMillis >= 0;
+        }
+
+        public long getLoadMillis() {
+            return Math.max(0, loadMillis);
+        }
+    }
+
+    private ModelRegistry() {
+    }
+
+    // format is yolo.model.format, ONNX models have no separate config file
+    public static PooledNet acquire(String format, String modelConfigPath, String modelWeightsPath) throws IOException {
+        boolean onnx = format.equals("onnx");
+        if (!onnx && !format.equals("darknet")) {
+            throw new IOException("Unknown yolo.model.format: " + format);
+        }
+
+        // Distributed cache links of different tasks resolve to the same localized file
+        String model = format + "|" + (onnx ? "" : new File(modelConfigPath).getCanonicalPath()) + "|"
+                + new File(modelWeightsPath).getCanonicalPath();
+        synchronized (idleNets) {
+            Deque<Net> idle = idleNets.get(model);
+            if (idle != null && !idle.isEmpty()) {
+                return new PooledNet(model, idle.pop(), -1);
+            }
+        }
+
+        // Loaded outside the lock, so the worker threads of a task load their networks in parallel
+        long start = System.nanoTime();
+        Net net = onnx ? Dnn.readNetFromONNX(modelWeightsPath) : Dnn.readNetFromDarknet(modelConfigPath, modelWeightsPath);
+        if (net.empty()) {
+            throw new IOException("Failed to load YOLO model " + modelWeightsPath);
+        }
+        return new PooledNet(model, net, (System.nanoTime() - start) / 1000000);
+    }
+
+    // The annotator using the network must not be used after this
+    public static void release(PooledNet pooledNet) {
+        synchronized (idleNets) {
+            idleNets.computeIfAbsent(pooledNet.model, model -> new ArrayDeque<>()).push(pooledNet.net);
+        }
+    }
+}
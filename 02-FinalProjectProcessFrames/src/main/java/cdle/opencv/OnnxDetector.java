@@ -0,0 +1,96 @@
+package cdle.opencv;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.dnn.Net;
+
+/* YOLO models exported to ONNX, read with readNetFromONNX. Boxes are in network input
+   pixels, and the layout is told apart by the output shape, there are far more rows than classes:
+     1 x rows x (5 + classes): YOLOv5 style, cx, cy, w, h, objectness and class probabilities
+     1 x (4 + classes) x rows: YOLOv8 style, transposed and without objectness
+   Exported models usually have a fixed batch size of 1, so images are run one at a time.
+   Quantized (int8) ONNX models run on the opencv backend as they are. */
+public class OnnxDetector extends YoloDetector {
+
+    public OnnxDetector(Net net, List<String> classNames, int inputSize, String backend, String target) {
+        super("onnx", net, classNames, inputSize, backend, target);
+    }
+
+    @Override
+    protected void detectPlayers(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences) {
+        for (Mat image : images) {
+            List<Mat> outputs = forward(Collections.singletonList(image));
+            long t = System.nanoTime();
+            try {
+                Mat output = outputs.get(0);
+                if (personClassId >= 0) {
+                    parseOutput(copyOutput(0, output), output, image);
+                }
+            } finally {
+                for (Mat output : outputs) {
+                    output.release();
+                }
+            }
+            t = timings.record(Stage.PARSE, t);
+            List<Float> imageConfidences = new ArrayList<>();
+            playerBoxes.add(applyNMS(imageConfidences));
+            confidences.add(imageConfidences);
+            timings.record(Stage.NMS, t);
+        }
+    }
+
+    private void parseOutput(float[] data, Mat output, Mat image) {
+        if (output.dims() != 3) {
+            throw new IllegalStateException("Unsupported ONNX output with " + output.dims() + " dimensions");
+        }
+        double scaleX = (double) image.cols() / inputSize;
+        double scaleY = (double) image.rows() / inputSize;
+
+        if (output.size(1) > output.size(2)) {
+            // Rows of cx, cy, w, h, objectness, class probabilities
+            int cols = output.size(2);
+            int classCount = cols - 5;
+            if (personClassId >= classCount) {
+                return;
+            }
+            for (int i = 0; i < output.size(1); i++) {
+                int offset = i * cols;
+                float objectness = data[offset + 4];
+                if (objectness <= CONF_THRESHOLD) {
+                    continue;
+                }
+                float probability = data[offset + 5 + personClassId];
+                float confidence = objectness * probability;
+                if (confidence <= CONF_THRESHOLD || !isBestClass(data, offset + 5, classCount, 1, probability)) {
+                    continue;
+                }
+                addBox(data[offset], data[offset + 1], data[offset + 2], data[offset + 3], scaleX, scaleY, confidence);
+            }
+        } else {
+            // Columns of cx, cy, w, h, class scores
+            int rows = output.size(2);
+            int classCount = output.size(1) - 4;
+            if (personClassId >= classCount) {
+                return;
+            }
+            for (int i = 0; i < rows; i++) {
+                float confidence = data[(4 + personClassId) * rows + i];
+                if (confidence <= CONF_THRESHOLD || !isBestClass(data, 4 * rows + i, classCount, rows, confidence)) {
+                    continue;
+                }
+                addBox(data[i], data[rows + i], data[2 * rows + i], data[3 * rows + i], scaleX, scaleY, confidence);
+            }
+        }
+    }
+
+    private void addBox(float centerX, float centerY, float width, float height, double scaleX, double scaleY, float confidence) {
+        int boxWidth = (int) (width * scaleX);
+        int boxHeight = (int) (height * scaleY);
+        addCandidate((int) (centerX * scaleX) - boxWidth / 2, (int) (centerY * scaleY) - boxHeight / 2, boxWidth, boxHeight,
+                confidence);
+    }
+}
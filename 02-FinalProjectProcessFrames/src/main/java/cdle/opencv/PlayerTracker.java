@@ -0,0 +1,153 @@
+package cdle.opencv;
+
+import java.util.Arrays;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/* Moves the players of the last frame to the next one with pyramidal Lucas-Kanade
+   optical flow, so YOLO only has to run on keyframes. Each box is sampled with a grid
+   of points and shifted by the median motion of the points that were followed. The
+   tracking confidence of a frame is the mean fraction of followed points per box;
+   boxes that lose most of their points are dropped. */
+public class PlayerTracker {
+
+    private static final int GRID = 5;
+    private static final int POINTS_PER_BOX = GRID * GRID;
+
+    private final int keyframeInterval;
+    private final double minConfidence;
+
+    private Mat previousGray = new Mat();
+    private Mat gray = new Mat();
+    private final MatOfPoint2f previousPoints = new MatOfPoint2f();
+    private final MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfFloat error = new MatOfFloat();
+    private final Size windowSize = new Size(21, 21);
+
+    private float[] points = new float[0];
+    private float[] moved = new float[0];
+    private byte[] followed = new byte[0];
+    private final float[] dx = new float[POINTS_PER_BOX];
+    private final float[] dy = new float[POINTS_PER_BOX];
+
+    // Frames tracked since the last keyframe, -1 before the first keyframe
+    private int framesSinceKeyframe = -1;
+
+    public PlayerTracker(int keyframeInterval, double minConfidence) {
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+        this.minConfidence = minConfidence;
+    }
+
+    public boolean needsKeyframe() {
+        return framesSinceKeyframe < 0 || framesSinceKeyframe + 1 >= keyframeInterval;
+    }
+
+    // Forgets the last frame, the next one will be a keyframe
+    public void reset() {
+        framesSinceKeyframe = -1;
+    }
+
+    // Takes the frame as the reference for the following ones, its players were just detected
+    public void keyframe(Mat image) {
+        Imgproc.cvtColor(image, previousGray, Imgproc.COLOR_BGR2GRAY);
+        framesSinceKeyframe = 0;
+    }
+
+    /* Moves the boxes in detections to image. Returns false when the tracking confidence is
+       under the minimum, the caller should then detect again. */
+    public boolean track(Mat image, FrameDetections detections) {
+        Imgproc.cvtColor(image, gray, Imgproc.COLOR_BGR2GRAY);
+
+        int boxes = detections.size();
+        double confidence = 1.0;
+        if (boxes > 0) {
+            samplePoints(detections);
+            Video.calcOpticalFlowPyrLK(previousGray, gray, previousPoints, nextPoints, status, error, windowSize, 3);
+            nextPoints.get(0, 0, moved);
+            status.get(0, 0, followed);
+
+            double confidenceSum = 0;
+            for (int b = boxes - 1; b >= 0; b--) {
+                confidenceSum += moveBox(detections, b, image);
+            }
+            confidence = confidenceSum / boxes;
+        }
+
+        // This frame is the reference for the next one
+        Mat swap = previousGray;
+        previousGray = gray;
+        gray = swap;
+        framesSinceKeyframe++;
+
+        return confidence >= minConfidence;
+    }
+
+    private void samplePoints(FrameDetections detections) {
+        int count = detections.size() * POINTS_PER_BOX;
+        if (points.length < count * 2) {
+            points = new float[count * 2];
+            moved = new float[count * 2];
+            followed = new byte[count];
+        }
+
+        int p = 0;
+        for (int b = 0; b < detections.size(); b++) {
+            Rect2d box = detections.getBox(b);
+            for (int i = 0; i < GRID; i++) {
+                for (int j = 0; j < GRID; j++) {
+                    points[p++] = (float) (box.x + box.width * (i + 0.5) / GRID);
+                    points[p++] = (float) (box.y + box.height * (j + 0.5) / GRID);
+                }
+            }
+        }
+        previousPoints.create(count, 1, CvType.CV_32FC2);
+        previousPoints.put(0, 0, points);
+    }
+
+    // Shifts box b by the median motion of its followed points, returns the fraction followed
+    private double moveBox(FrameDetections detections, int b, Mat image) {
+        int n = 0;
+        for (int k = b * POINTS_PER_BOX; k < (b + 1) * POINTS_PER_BOX; k++) {
+            if (followed[k] != 0) {
+                dx[n] = moved[2 * k] - points[2 * k];
+                dy[n] = moved[2 * k + 1] - points[2 * k + 1];
+                n++;
+            }
+        }
+
+        double boxConfidence = (double) n / POINTS_PER_BOX;
+        if (boxConfidence < 0.5) {
+            detections.remove(b);
+            return boxConfidence;
+        }
+
+        Rect2d box = detections.getBox(b);
+        float shiftX = median(dx, n);
+        float shiftY = median(dy, n);
+        double x1 = Math.max(box.x + shiftX, 0);
+        double y1 = Math.max(box.y + shiftY, 0);
+        double x2 = Math.min(box.x + shiftX + box.width, image.cols());
+        double y2 = Math.min(box.y + shiftY + box.height, image.rows());
+        if (x1 >= x2 || y1 >= y2) {
+            // Left the frame
+            detections.remove(b);
+            return 0;
+        }
+        detections.setBox(b, new Rect2d(x1, y1, x2 - x1, y2 - y1));
+        return boxConfidence;
+    }
+
+    private static float median(float[] values, int n) {
+        Arrays.sort(values, 0, n);
+        return values[n / 2];
+    }
+}
@@ -0,0 +1,41 @@
+package cdle.opencv;
+
+import java.io.File;
+
+import org.apache.hadoop.mapreduce.Counter;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// One lossless PNG per frame on the worker's local disk, as the job always did
+public class PngAnnotationSink implements AnnotationSink {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PngAnnotationSink.class);
+
+    private final String outputDir;
+    private final Counter failedWrites;
+
+    public PngAnnotationSink(String outputDir, Counter failedWrites) {
+        this.outputDir = outputDir.replace("file://", "").replace("file:", "");
+        this.failedWrites = failedWrites;
+        new File(this.outputDir).mkdirs();
+    }
+
+    @Override
+    public void write(FrameKey key, Mat annotated) {
+        String outputFilePath = String.format("%s/%s_frame_%d_annotated.png", outputDir, key.getVideoId(),
+                key.getFrameIndex());
+        // Annotated frames are a by-product, a frame that cannot be saved is only counted
+        if (!Imgcodecs.imwrite(outputFilePath, annotated)) {
+            LOG.warn("Failed to save annotated image: {}", outputFilePath);
+            failedWrites.increment(1);
+            return;
+        }
+        LOG.debug("Annotated image saved: {}", outputFilePath);
+    }
+
+    @Override
+    public void close() {
+    }
+}
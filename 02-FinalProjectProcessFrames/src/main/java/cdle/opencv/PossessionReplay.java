@@ -0,0 +1,91 @@
+package cdle.opencv;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/* Recomputes possession from a detections.output.dir dataset, without OpenCV or the
+   model, so possession rules can be tried at disk speed. The rule below is the one
+   ImageAnnotator applies (the team of the player whose box centre is closest to the
+   ball), with an optional maximum distance. Team colours are stored as classified;
+   changing the colour thresholds needs the frames again. */
+public class PossessionReplay extends Configured implements Tool {
+
+    @Override
+    public int run(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: PossessionReplay <detections dir> [max ball distance in pixels]");
+            return -1;
+        }
+        double maxDistance = args.length > 1 ? Double.parseDouble(args[1]) : Double.MAX_VALUE;
+
+        Configuration conf = getConf();
+        Path dir = new Path(args[0]);
+        FileSystem fs = dir.getFileSystem(conf);
+
+        Map<Team, Long> counts = new EnumMap<>(Team.class);
+        long frames = 0;
+        long unchanged = 0;
+
+        FrameKey key = new FrameKey();
+        DetectionRecord record = new DetectionRecord();
+        for (FileStatus file : fs.listStatus(dir)) {
+            String name = file.getPath().getName();
+            if (name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()))) {
+                while (reader.next(key, record)) {
+                    Team team = possession(record, maxDistance);
+                    counts.merge(team, 1L, Long::sum);
+                    frames++;
+                    if (team == record.getPossession()) {
+                        unchanged++;
+                    }
+                }
+            }
+        }
+
+        for (Map.Entry<Team, Long> count : counts.entrySet()) {
+            System.out.printf("%s\t%d\n", count.getKey().getLabel(), count.getValue());
+        }
+        System.out.printf("[%s] %d frames, %d with the same possession as the job.\n",
+                PossessionReplay.class.getName(), frames, unchanged);
+        return 0;
+    }
+
+    private static Team possession(DetectionRecord record, double maxDistance) {
+        float[] ball = record.getBall();
+        if (ball == null) {
+            return Team.UNKNOWN;
+        }
+        double ballX = ball[0] + ball[2] / 2.0;
+        double ballY = ball[1] + ball[3] / 2.0;
+
+        float[] boxes = record.getBoxes();
+        double minDistance = maxDistance;
+        Team possessingTeam = Team.UNKNOWN;
+        for (int i = 0; i < record.getPlayers(); i++) {
+            double playerX = boxes[i * 4] + boxes[i * 4 + 2] / 2.0;
+            double playerY = boxes[i * 4 + 1] + boxes[i * 4 + 3] / 2.0;
+            double distance = Math.sqrt(Math.pow(ballX - playerX, 2) + Math.pow(ballY - playerY, 2));
+            if (distance < minDistance) {
+                minDistance = distance;
+                possessingTeam = Team.fromId(record.getTeams()[i]);
+            }
+        }
+        return possessingTeam;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new PossessionReplay(), args));
+    }
+}
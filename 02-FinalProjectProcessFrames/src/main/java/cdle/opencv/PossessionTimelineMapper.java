@@ -0,0 +1,17 @@
+package cdle.opencv;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.VIntWritable;
+
+// Emits each frame's possessing team under its frame key, so the shuffle sorts each video by time
+public class PossessionTimelineMapper extends FrameMapper<FrameKey, VIntWritable> {
+
+    private final VIntWritable teamId = new VIntWritable();
+
+    @Override
+    protected void emit(FrameKey key, Team possession, Context context) throws IOException, InterruptedException {
+        teamId.set(possession.getId());
+        context.write(key, teamId);
+    }
+}
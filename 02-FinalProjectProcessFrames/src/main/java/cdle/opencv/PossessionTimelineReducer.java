@@ -0,0 +1,100 @@
+package cdle.opencv;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+/* Receives one video per call, frames sorted by timestamp (FrameKey order with
+   VideoGroupingComparator), and collapses runs of the same team into possession
+   segments as it goes. Output lines, tab separated:
+     <video> segment <start s> <end s> <team>
+     <video> total   <team> <seconds> <segments>
+     <video> changes <count>
+   A segment lasts until the next one starts; the last one gets the duration of the
+   previous sampling gap. Changes count hand-overs between known teams, ignoring
+   Unknown Team segments in between. */
+public class PossessionTimelineReducer extends Reducer<FrameKey, VIntWritable, Text, Text> {
+
+    private final Text video = new Text();
+    private final Text line = new Text();
+
+    // Per video state, only the open segment and the team totals are kept
+    private Team segmentTeam;
+    private long segmentStartMs;
+    private Team lastKnownTeam;
+    private long changes;
+    private final Map<Team, long[]> totals = new EnumMap<>(Team.class); // team -> {milliseconds, segments}
+
+    @Override
+    protected void reduce(FrameKey key, Iterable<VIntWritable> values, Context context)
+            throws IOException, InterruptedException {
+        video.set(key.getVideoId());
+        segmentTeam = null;
+        lastKnownTeam = null;
+        changes = 0;
+        totals.clear();
+
+        long previousMs = 0;
+        long lastGapMs = 0;
+
+        // The key object is updated with each value, giving that frame's timestamp
+        for (VIntWritable value : values) {
+            long timestampMs = key.getTimestampMs();
+            Team team = Team.fromId(value.get());
+
+            if (segmentTeam == null) {
+                startSegment(team, timestampMs);
+            } else {
+                if (timestampMs > previousMs) {
+                    lastGapMs = timestampMs - previousMs;
+                }
+                if (team != segmentTeam) {
+                    closeSegment(timestampMs, context);
+                    startSegment(team, timestampMs);
+                }
+            }
+            previousMs = timestampMs;
+        }
+
+        if (segmentTeam == null) {
+            return;
+        }
+        closeSegment(previousMs + lastGapMs, context);
+
+        for (Map.Entry<Team, long[]> total : totals.entrySet()) {
+            line.set(String.format("total\t%s\t%.3f\t%d", total.getKey().getLabel(), total.getValue()[0] / 1000.0, total.getValue()[1]));
+            context.write(video, line);
+        }
+        line.set("changes\t" + changes);
+        context.write(video, line);
+    }
+
+    private void startSegment(Team team, long startMs) {
+        segmentTeam = team;
+        segmentStartMs = startMs;
+
+        if (team != Team.UNKNOWN) {
+            if (lastKnownTeam != null && lastKnownTeam != team) {
+                changes++;
+            }
+            lastKnownTeam = team;
+        }
+    }
+
+    private void closeSegment(long endMs, Context context) throws IOException, InterruptedException {
+        line.set(String.format("segment\t%.3f\t%.3f\t%s", segmentStartMs / 1000.0, endMs / 1000.0, segmentTeam.getLabel()));
+        context.write(video, line);
+
+        long[] total = totals.get(segmentTeam);
+        if (total == null) {
+            total = new long[2];
+            totals.put(segmentTeam, total);
+        }
+        total[0] += endMs - segmentStartMs;
+        total[1]++;
+    }
+}
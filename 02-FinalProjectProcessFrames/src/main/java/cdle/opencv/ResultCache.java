@@ -0,0 +1,145 @@
+package cdle.opencv;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MD5Hash;
+import org.apache.hadoop.io.SequenceFile;
+
+/* Per-frame possession results kept between runs (cache.dir), so a re-run only
+   processes new videos, new frames, or everything after a model or settings change.
+
+   Results live in <cache.dir>/<fingerprint>/<video hash>/ as SequenceFiles of
+   (sample index, DetectionRecord), so cached frames still go to the detections
+   output. The fingerprint covers the model files and the settings that change the
+   results, including the sampling interval that sample indices depend on. Each task
+   appends its new results to its own file, written under a _ name and renamed on
+   close, so files of failed attempts are never read. Frames extracted without a
+   content hash (frames.content.hash) are never cached, nor are failed detections.
+
+   The fingerprint is computed once by the driver, from the file system checksums of the
+   model files, and passed to the tasks as cache.fingerprint. */
+public class ResultCache {
+
+    // Settings that change the per-frame results
+    private static final String[] RESULT_SETTINGS = {
+            "yolo.model.format", "yolo.input.size", "yolo.backend", "yolo.target",
+            "frames.interval.seconds", "frames.codec", "frames.downscale.factor", "pipeline.fused",
+            "ball.search.mode", "ball.roi.dilation", "ball.roi.window",
+            "tracking.enabled", "tracking.keyframe.interval", "tracking.min.confidence",
+            "prefilter.enabled", "prefilter.duplicate.threshold", "prefilter.court.min.ratio",
+            "prefilter.court.hsv.low", "prefilter.court.hsv.high"
+    };
+
+    private final Configuration conf;
+    private final Path root;
+    private final String fileName;
+
+    private final Map<String, Map<Long, DetectionRecord>> results = new HashMap<>(); // video hash -> sample -> detections
+    private final Map<String, SequenceFile.Writer> writers = new HashMap<>();
+    private final Map<String, Path> pendingFiles = new HashMap<>();
+
+    private final LongWritable sample = new LongWritable();
+
+    // fileName is unique per task attempt
+    public ResultCache(Configuration conf, String fileName) throws IOException {
+        this.conf = conf;
+        String fingerprint = conf.get("cache.fingerprint");
+        this.root = new Path(conf.get("cache.dir"), fingerprint != null ? fingerprint : fingerprint(conf));
+        this.fileName = fileName;
+    }
+
+    // Model paths without a scheme are local files, as in ImageDriver
+    public static String fingerprint(Configuration conf) throws IOException {
+        MessageDigest digest = ContentHash.md5();
+        FileSystem localFs = FileSystem.getLocal(conf);
+        for (String model : ImageDriver.MODEL_FILES) {
+            if (conf.get(model, "").isEmpty()) {
+                continue;
+            }
+            Path path = new Path(conf.get(model));
+            FileSystem fs = path.toUri().getScheme() == null ? localFs : path.getFileSystem(conf);
+            digest.update((ContentHash.ofFile(fs, path) + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update("records\n".getBytes(StandardCharsets.UTF_8)); // values are DetectionRecords, not team ids
+        for (String setting : RESULT_SETTINGS) {
+            digest.update((setting + "=" + conf.get(setting, "") + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+        return new MD5Hash(digest.digest()).toString();
+    }
+
+    // Cached detections and team of the frame, null if it was never processed with this fingerprint
+    public DetectionRecord get(FrameKey key) throws IOException {
+        if (key.getVideoHash().isEmpty()) {
+            return null;
+        }
+        return load(key.getVideoHash()).get(key.getFrameIndex());
+    }
+
+    public void put(FrameKey key, DetectionRecord record) throws IOException {
+        if (key.getVideoHash().isEmpty()) {
+            return;
+        }
+        SequenceFile.Writer writer = writers.get(key.getVideoHash());
+        if (writer == null) {
+            Path pending = new Path(new Path(root, key.getVideoHash()), "_" + fileName);
+            writer = SequenceFile.createWriter(conf,
+                    SequenceFile.Writer.file(pending),
+                    SequenceFile.Writer.keyClass(LongWritable.class),
+                    SequenceFile.Writer.valueClass(DetectionRecord.class));
+            writers.put(key.getVideoHash(), writer);
+            pendingFiles.put(key.getVideoHash(), pending);
+        }
+        sample.set(key.getFrameIndex());
+        writer.append(sample, record);
+    }
+
+    // Publishes the results written by this task
+    public void close() throws IOException {
+        try {
+            for (Map.Entry<String, SequenceFile.Writer> entry : writers.entrySet()) {
+                entry.getValue().close();
+                Path pending = pendingFiles.get(entry.getKey());
+                Path file = new Path(pending.getParent(), fileName);
+                if (!pending.getFileSystem(conf).rename(pending, file)) {
+                    throw new IOException("Failed to publish cached results to " + file);
+                }
+            }
+        } finally {
+            writers.clear();
+        }
+    }
+
+    private Map<Long, DetectionRecord> load(String videoHash) throws IOException {
+        Map<Long, DetectionRecord> videoResults = results.get(videoHash);
+        if (videoResults != null) {
+            return videoResults;
+        }
+
+        videoResults = new HashMap<>();
+        Path dir = new Path(root, videoHash);
+        FileSystem fs = dir.getFileSystem(conf);
+        if (fs.exists(dir)) {
+            for (FileStatus file : fs.listStatus(dir)) {
+                if (file.getPath().getName().startsWith("_") || file.getPath().getName().startsWith(".")) {
+                    continue;
+                }
+                try (SequenceFile.Reader reader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(file.getPath()))) {
+                    for (DetectionRecord record = new DetectionRecord(); reader.next(sample, record); record = new DetectionRecord()) {
+                        videoResults.put(sample.get(), record);
+                    }
+                }
+            }
+        }
+        results.put(videoHash, videoResults);
+        return videoResults;
+    }
+}
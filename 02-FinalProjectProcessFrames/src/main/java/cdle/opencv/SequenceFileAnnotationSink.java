@@ -0,0 +1,135 @@
+package cdle.opencv;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/* JPEG encodes annotated frames on a background thread and appends them to a
+   SequenceFile of (FrameKey, JPEG bytes), written through the FileSystem API so the
+   output lands in HDFS. The file is published as part-<task id> on close. The queue is
+   bounded, a slow encoder blocks the task. */
+public class SequenceFileAnnotationSink implements AnnotationSink {
+
+    private static final Frame END = new Frame(null, null);
+
+    private final SequenceFile.Writer writer;
+    private final FileSystem fs;
+    private final Path pendingFile;
+    private final Path file;
+    private final BlockingQueue<Frame> queue;
+    private final Thread encoderThread;
+
+    private volatile IOException failure;
+
+    private static class Frame {
+        final FrameKey key;
+        final Mat image;
+
+        Frame(FrameKey key, Mat image) {
+            this.key = key;
+            this.image = image;
+        }
+    }
+
+    public SequenceFileAnnotationSink(Configuration conf, String outputDir, TaskAttemptID attempt, int queueSize)
+            throws IOException {
+        Path dir = new Path(outputDir);
+        this.fs = dir.getFileSystem(conf);
+        this.pendingFile = new Path(dir, "_" + attempt);
+        this.file = new Path(dir, "part-" + attempt.getTaskID());
+        this.writer = SequenceFile.createWriter(conf,
+                SequenceFile.Writer.file(pendingFile),
+                SequenceFile.Writer.keyClass(FrameKey.class),
+                SequenceFile.Writer.valueClass(BytesWritable.class));
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+
+        this.encoderThread = new Thread(this::encodeLoop, "annotation-encoder");
+        this.encoderThread.setDaemon(true);
+        this.encoderThread.start();
+    }
+
+    @Override
+    public void write(FrameKey key, Mat annotated) throws IOException, InterruptedException {
+        checkFailure();
+        Frame frame = new Frame(new FrameKey(key.getVideoId(), key.getVideoHash(), key.getFrameIndex(), key.getTimestampMs()),
+                annotated.clone());
+        try {
+            put(frame);
+        } catch (IOException e) {
+            frame.image.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException, InterruptedException {
+        try {
+            put(END);
+            encoderThread.join();
+        } finally {
+            writer.close();
+        }
+        checkFailure();
+
+        fs.delete(file, false);
+        if (!fs.rename(pendingFile, file)) {
+            throw new IOException("Failed to publish annotated frames to " + file);
+        }
+    }
+
+    // Blocks while the queue is full, but fails instead once the encoder thread has stopped
+    private void put(Frame frame) throws IOException, InterruptedException {
+        while (!queue.offer(frame, 100, TimeUnit.MILLISECONDS)) {
+            checkFailure();
+            if (!encoderThread.isAlive()) {
+                throw new IOException("Annotation encoder stopped");
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // Stops at the first failure, which write and close then throw
+    private void encodeLoop() {
+        MatOfByte jpeg = new MatOfByte();
+        BytesWritable value = new BytesWritable();
+        try {
+            for (Frame frame = queue.take(); frame != END; frame = queue.take()) {
+                try {
+                    if (!Imgcodecs.imencode(".jpg", frame.image, jpeg)) {
+                        throw new IOException("Failed to encode annotated frame " + frame.key);
+                    }
+                    byte[] bytes = jpeg.toArray();
+                    value.set(bytes, 0, bytes.length);
+                    writer.append(frame.key, value);
+                } finally {
+                    frame.image.release();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            failure = e;
+        } catch (Throwable t) {
+            // e.g. a CvException from imencode
+            failure = new IOException("Failed to write annotated frames", t);
+        } finally {
+            jpeg.release();
+        }
+    }
+}
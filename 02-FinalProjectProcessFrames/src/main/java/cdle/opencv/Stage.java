@@ -0,0 +1,24 @@
+package cdle.opencv;
+
+// Steps of the frame analysis whose latency is recorded, see StageTimings
+public enum Stage {
+    DECODE("Decode"),          // frame payload to Mat, per frame
+    PREFILTER("Prefilter"),    // court colour and duplicate check, per frame when prefilter.enabled
+    BLOB("Blob"),              // blobFromImages, per forward pass
+    FORWARD("Forward"),        // network forward pass, per batch
+    PARSE("Parse"),            // network output to candidate boxes, per frame
+    NMS("Nms"),                // non-maximum suppression, per frame
+    SHIRT_COLOR("ShirtColor"), // team of every player, per frame
+    BALL("Ball"),              // ball search, per frame
+    SAVE("Save");              // annotated frame to the AnnotationSink, per saved frame
+
+    private final String label;
+
+    Stage(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+}
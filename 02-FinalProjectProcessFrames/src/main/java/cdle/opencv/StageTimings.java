@@ -0,0 +1,126 @@
+package cdle.opencv;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/* Latency histograms per Stage, recorded by a single thread. Consecutive stages take one
+   nanoTime call each: t = timings.record(Stage.BLOB, t). The summary file is a table of
+   percentiles followed by the histogram buckets, so the summaries of all the tasks can be
+   merged into the percentiles of the whole job. It also carries the peak native memory of
+   the task's frames, which is merged by taking the largest, never summed. */
+public class StageTimings {
+
+    private static final double[] PERCENTILES = { 50, 90, 99 };
+
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private long peakNativeBytes; // see MatArena
+
+    // Records the time since startNanos, returns the current time
+    public long record(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        histograms.computeIfAbsent(stage, s -> new LatencyHistogram()).record(now - startNanos);
+        return now;
+    }
+
+    // null when the stage never ran
+    public LatencyHistogram get(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    public long getPeakNativeBytes() {
+        return peakNativeBytes;
+    }
+
+    public void setPeakNativeBytes(long peakNativeBytes) {
+        this.peakNativeBytes = peakNativeBytes;
+    }
+
+    public void merge(StageTimings other) {
+        peakNativeBytes = Math.max(peakNativeBytes, other.peakNativeBytes);
+        for (Map.Entry<Stage, LatencyHistogram> entry : other.histograms.entrySet()) {
+            histograms.computeIfAbsent(entry.getKey(), s -> new LatencyHistogram()).merge(entry.getValue());
+        }
+    }
+
+    public void writeSummary(FileSystem fs, Path file) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(fs.create(file, true), StandardCharsets.UTF_8))) {
+            writeTable(out);
+            out.println();
+            out.printf("peak_native_bytes %d\n", peakNativeBytes);
+            out.println("buckets");
+            for (Map.Entry<Stage, LatencyHistogram> entry : histograms.entrySet()) {
+                out.printf("%s %s\n", entry.getKey().getLabel(), entry.getValue().toBucketString());
+            }
+        }
+    }
+
+    // Calls, mean, percentiles and max of every stage, in microseconds
+    public void writeTable(PrintWriter out) {
+        out.printf("%-12s %10s %10s", "stage", "calls", "mean_us");
+        for (double percentile : PERCENTILES) {
+            out.printf(" %10s", "p" + (int) percentile + "_us");
+        }
+        out.printf(" %10s\n", "max_us");
+
+        for (Map.Entry<Stage, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            out.printf("%-12s %10d %10d", entry.getKey().getLabel(), histogram.getCount(), histogram.getMeanNanos() / 1000);
+            for (double percentile : PERCENTILES) {
+                out.printf(" %10d", histogram.getPercentileNanos(percentile) / 1000);
+            }
+            out.printf(" %10d\n", histogram.getMaxNanos() / 1000);
+        }
+    }
+
+    // Merges the summary files of a directory, skipping files being written (_ names)
+    public static StageTimings readSummaries(FileSystem fs, Path directory) throws IOException {
+        StageTimings timings = new StageTimings();
+        if (!fs.exists(directory)) {
+            return timings;
+        }
+        for (FileStatus file : fs.listStatus(directory)) {
+            if (file.getPath().getName().startsWith("_") || file.getPath().getName().startsWith(".")) {
+                continue;
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(file.getPath()), StandardCharsets.UTF_8))) {
+                boolean buckets = false;
+                for (String line = in.readLine(); line != null; line = in.readLine()) {
+                    if (!buckets) {
+                        if (line.startsWith("peak_native_bytes ")) {
+                            timings.peakNativeBytes = Math.max(timings.peakNativeBytes,
+                                    Long.parseLong(line.substring("peak_native_bytes ".length())));
+                        }
+                        buckets = line.equals("buckets");
+                        continue;
+                    }
+                    int separator = line.indexOf(' ');
+                    Stage stage = stage(line.substring(0, separator));
+                    if (stage != null) {
+                        timings.histograms.computeIfAbsent(stage, s -> new LatencyHistogram())
+                                .merge(LatencyHistogram.parse(line.substring(separator + 1)));
+                    }
+                }
+            }
+        }
+        return timings;
+    }
+
+    private static Stage stage(String label) {
+        for (Stage stage : Stage.values()) {
+            if (stage.getLabel().equals(label)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+}
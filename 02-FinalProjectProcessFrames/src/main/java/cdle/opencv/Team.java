@@ -0,0 +1,38 @@
+package cdle.opencv;
+
+import org.opencv.core.Scalar;
+
+/* Teams told apart by shirt colour, with the label written to the output and the
+   annotation colour. Map outputs carry the id, the position in this enum, so new
+   teams go at the end. */
+public enum Team {
+    LAKERS("Lakers (Yellow)", new Scalar(0, 255, 255)),
+    TRAILBLAZERS("Trailblazers (Red)", new Scalar(0, 0, 255)),
+    UNKNOWN("Unknown Team", new Scalar(255, 0, 0));
+
+    private final String label;
+    private final Scalar color;
+
+    Team(String label, Scalar color) {
+        this.label = label;
+        this.color = color;
+    }
+
+    private static final Team[] BY_ID = values();
+
+    public static Team fromId(int id) {
+        return BY_ID[id];
+    }
+
+    public int getId() {
+        return ordinal();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Scalar getColor() {
+        return color;
+    }
+}
@@ -0,0 +1,24 @@
+package cdle.opencv;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapreduce.Reducer;
+
+// Sums the frame counts of each team on the map side
+public class TeamCountCombiner extends Reducer<VIntWritable, VLongWritable, VIntWritable, VLongWritable> {
+
+    private final VLongWritable count = new VLongWritable();
+
+    @Override
+    protected void reduce(VIntWritable key, Iterable<VLongWritable> values, Context context)
+            throws IOException, InterruptedException {
+        long total = 0;
+        for (VLongWritable value : values) {
+            total += value.get();
+        }
+        count.set(total);
+        context.write(key, count);
+    }
+}
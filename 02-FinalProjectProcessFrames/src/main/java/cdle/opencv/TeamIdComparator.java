@@ -0,0 +1,23 @@
+package cdle.opencv;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.WritableComparator;
+
+// Sorts serialized VIntWritable team ids without deserializing them
+public class TeamIdComparator extends WritableComparator {
+
+    public TeamIdComparator() {
+        super(VIntWritable.class);
+    }
+
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        try {
+            return Integer.compare(readVInt(b1, s1), readVInt(b2, s2));
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
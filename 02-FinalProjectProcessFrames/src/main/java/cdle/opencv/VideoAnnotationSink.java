@@ -0,0 +1,67 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoWriter;
+
+/* Writes the annotated frames of each video as an MJPEG AVI, which OpenCV can write
+   without FFmpeg. VideoWriter only writes local files, so each video is written to a
+   temporary file and copied to <annotation.output.dir>/<video>_<first frame>.avi when
+   the next video starts or the task ends. A time split yields one file per split. */
+public class VideoAnnotationSink implements AnnotationSink {
+
+    private final Configuration conf;
+    private final Path outputDir;
+    private final TaskAttemptID attempt;
+    private final double fps;
+
+    private VideoWriter videoWriter;
+    private File localFile;
+    private String videoId;
+    private Path videoFile;
+
+    public VideoAnnotationSink(Configuration conf, String outputDir, TaskAttemptID attempt, double fps) {
+        this.conf = conf;
+        this.outputDir = new Path(outputDir);
+        this.attempt = attempt;
+        this.fps = fps;
+    }
+
+    @Override
+    public void write(FrameKey key, Mat annotated) throws IOException {
+        if (videoWriter == null || !key.getVideoId().equals(videoId)) {
+            finishVideo();
+
+            videoId = key.getVideoId();
+            videoFile = new Path(outputDir, String.format("%s_%d.avi", videoId, key.getFrameIndex()));
+            localFile = File.createTempFile(attempt + "-", ".avi");
+            videoWriter = new VideoWriter(localFile.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), fps, annotated.size());
+            if (!videoWriter.isOpened()) {
+                throw new IOException("Failed to open video writer for " + videoFile);
+            }
+        }
+        videoWriter.write(annotated);
+    }
+
+    @Override
+    public void close() throws IOException {
+        finishVideo();
+    }
+
+    private void finishVideo() throws IOException {
+        if (videoWriter == null) {
+            return;
+        }
+        videoWriter.release();
+        videoWriter = null;
+
+        FileSystem fs = videoFile.getFileSystem(conf);
+        fs.copyFromLocalFile(true, true, new Path(localFile.getPath()), videoFile);
+    }
+}
@@ -0,0 +1,27 @@
+package cdle.opencv;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/* Groups frame keys by video only, so one reduce call sees a whole video in time order.
+   A video is its name and content hash, so same-named videos from different folders
+   get a timeline each when they are hashed (frames.content.hash). */
+public class VideoGroupingComparator extends WritableComparator {
+
+    public VideoGroupingComparator() {
+        super(FrameKey.class, true);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int compare(WritableComparable a, WritableComparable b) {
+        int cmp = ((FrameKey) a).getVideoId().compareTo(((FrameKey) b).getVideoId());
+        return cmp != 0 ? cmp : ((FrameKey) a).getVideoHash().compareTo(((FrameKey) b).getVideoHash());
+    }
+
+    // Reduce groups are split on the serialized keys, the video id and hash come first in them
+    @Override
+    public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+        return FrameKey.Comparator.compareVideos(b1, s1, b2, s2);
+    }
+}
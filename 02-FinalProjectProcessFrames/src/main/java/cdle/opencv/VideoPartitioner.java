@@ -0,0 +1,12 @@
+package cdle.opencv;
+
+import org.apache.hadoop.mapreduce.Partitioner;
+
+// Sends all the frames of a video, told apart by name and content hash, to the same reducer
+public class VideoPartitioner<V> extends Partitioner<FrameKey, V> {
+
+    @Override
+    public int getPartition(FrameKey key, V value, int numPartitions) {
+        return ((key.getVideoId().hashCode() * 31 + key.getVideoHash().hashCode()) & Integer.MAX_VALUE) % numPartitions;
+    }
+}
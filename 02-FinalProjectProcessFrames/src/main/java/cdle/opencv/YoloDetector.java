@@ -0,0 +1,236 @@
+package cdle.opencv;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfInt;
+import org.opencv.core.MatOfRect2d;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.dnn.Dnn;
+import org.opencv.dnn.Net;
+
+/* Forward pass, candidate boxes and NMS shared by the YOLO detectors. Subclasses parse
+   the output of their model format into candidates with addCandidate. */
+public abstract class YoloDetector implements Detector {
+
+    protected static final float CONF_THRESHOLD = 0.5f;
+    private static final float NMS_SCORE_THRESHOLD = 0.6f;
+    private static final float NMS_THRESHOLD = 0.4f;
+
+    protected final Net net;
+    protected final int personClassId;   // Index of "person" in the class names, -1 if missing
+    protected final int inputSize;       // Width and height of the network input, a multiple of 32
+    private final String name;
+
+    // Buffers reused across frames: one float copy per output layer, and the NMS candidates
+    private final List<float[]> outputBuffers = new ArrayList<>();
+    private double[] candidateBoxes = new double[4 * 256];
+    private float[] candidateConfidences = new float[256];
+    private int candidateCount;
+
+    private long frames;
+    private long forwardPasses;
+    private long detectNanos;
+    protected final StageTimings timings = new StageTimings();
+
+    protected YoloDetector(String format, Net net, List<String> classNames, int inputSize, String backend, String target) {
+        if (inputSize <= 0 || inputSize % 32 != 0) {
+            throw new IllegalArgumentException("yolo.input.size must be a positive multiple of 32: " + inputSize);
+        }
+        this.net = net;
+        this.net.setPreferableBackend(backend(backend));
+        this.net.setPreferableTarget(target(target));
+        // The names only label the classes, their count comes from each output row
+        this.personClassId = personClassId(classNames);
+        this.inputSize = inputSize;
+        this.name = String.format("%s %dx%d %s/%s", format, inputSize, inputSize, backend, target);
+    }
+
+    private static int personClassId(List<String> classNames) {
+        for (int i = 0; i < classNames.size(); i++) {
+            if (classNames.get(i).trim().equals("person")) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int backend(String backend) {
+        switch (backend) {
+            case "opencv":
+                return Dnn.DNN_BACKEND_OPENCV;
+            case "openvino":
+                return Dnn.DNN_BACKEND_INFERENCE_ENGINE;
+            case "cuda":
+                return Dnn.DNN_BACKEND_CUDA;
+            default:
+                throw new IllegalArgumentException("Unknown yolo.backend: " + backend);
+        }
+    }
+
+    // The FP16 targets halve the weights' precision; OpenCV falls back from cpu-fp16 to cpu on CPUs other than ARMv8
+    private static int target(String target) {
+        switch (target) {
+            case "cpu":
+                return Dnn.DNN_TARGET_CPU;
+            case "cpu-fp16":
+                return Dnn.DNN_TARGET_CPU_FP16;
+            case "opencl":
+                return Dnn.DNN_TARGET_OPENCL;
+            case "opencl-fp16":
+                return Dnn.DNN_TARGET_OPENCL_FP16;
+            case "cuda":
+                return Dnn.DNN_TARGET_CUDA;
+            case "cuda-fp16":
+                return Dnn.DNN_TARGET_CUDA_FP16;
+            default:
+                throw new IllegalArgumentException("Unknown yolo.target: " + target);
+        }
+    }
+
+    @Override
+    public final void detect(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences) {
+        long start = System.nanoTime();
+        try {
+            detectPlayers(images, playerBoxes, confidences);
+        } finally {
+            detectNanos += System.nanoTime() - start;
+            frames += images.size();
+        }
+    }
+
+    protected abstract void detectPlayers(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences);
+
+    // One forward pass over all the images, the caller releases the outputs
+    protected List<Mat> forward(List<Mat> images) {
+        List<Mat> outputs = new ArrayList<>();
+        long start = System.nanoTime();
+        Mat blob = Dnn.blobFromImages(images, 1 / 255.0, new Size(inputSize, inputSize), new Scalar(0, 0, 0), true, false);
+        try {
+            long t = timings.record(Stage.BLOB, start);
+            net.setInput(blob);
+            net.forward(outputs, net.getUnconnectedOutLayersNames());
+            timings.record(Stage.FORWARD, t);
+            forwardPasses++;
+        } finally {
+            blob.release();
+        }
+        return outputs;
+    }
+
+    // Copies an output Mat into the reusable buffer of its layer
+    protected float[] copyOutput(int layer, Mat output) {
+        if (outputBuffers.size() <= layer) {
+            outputBuffers.add(new float[0]);
+        }
+        int total = (int) output.total();
+        float[] data = outputBuffers.get(layer);
+        if (data.length != total) {
+            data = new float[total];
+            outputBuffers.set(layer, data);
+        }
+
+        Mat flat = output.reshape(1, 1);
+        flat.get(0, 0, data);
+        flat.release();
+        return data;
+    }
+
+    /* Whether the person score is the best of the classCount scores starting at firstClass,
+       stride apart. classCount comes from the output shape, not the class names file.
+       minMaxLoc returns the first maximum, so earlier classes win ties. */
+    protected boolean isBestClass(float[] data, int firstClass, int classCount, int stride, float score) {
+        for (int k = 0; k < classCount; k++) {
+            float other = data[firstClass + k * stride];
+            if (k < personClassId ? other >= score : k > personClassId && other > score) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    protected void addCandidate(int x, int y, int width, int height, float confidence) {
+        if (candidateCount == candidateConfidences.length) {
+            candidateBoxes = Arrays.copyOf(candidateBoxes, candidateBoxes.length * 2);
+            candidateConfidences = Arrays.copyOf(candidateConfidences, candidateConfidences.length * 2);
+        }
+        int box = candidateCount * 4;
+        candidateBoxes[box] = x;
+        candidateBoxes[box + 1] = y;
+        candidateBoxes[box + 2] = width;
+        candidateBoxes[box + 3] = height;
+        candidateConfidences[candidateCount++] = confidence;
+    }
+
+    // Drops the candidates without running NMS, for the benchmarks
+    void clearCandidates() {
+        candidateCount = 0;
+    }
+
+    // Runs NMS over the candidates of one image and clears them, the kept boxes' confidences go to filteredConfidences
+    protected List<Rect2d> applyNMS(List<Float> filteredConfidences) {
+        List<Rect2d> filteredBoxes = new ArrayList<>();
+        if (candidateCount == 0) {
+            return filteredBoxes;
+        }
+
+        MatOfRect2d boxesMat = new MatOfRect2d();
+        MatOfFloat confidencesMat = new MatOfFloat();
+        MatOfInt indices = new MatOfInt();
+
+        try {
+            boxesMat.create(candidateCount, 1, CvType.CV_64FC4);
+            // put copies only what fits the Mat, so the oversized buffers need no trimming
+            boxesMat.put(0, 0, candidateBoxes);
+            confidencesMat.create(candidateCount, 1, CvType.CV_32FC1);
+            confidencesMat.put(0, 0, candidateConfidences);
+
+            Dnn.NMSBoxes(boxesMat, confidencesMat, NMS_SCORE_THRESHOLD, NMS_THRESHOLD, indices);
+
+            for (int idx : indices.toArray()) {
+                int box = idx * 4;
+                filteredBoxes.add(new Rect2d(candidateBoxes[box], candidateBoxes[box + 1],
+                        candidateBoxes[box + 2], candidateBoxes[box + 3]));
+                filteredConfidences.add(candidateConfidences[idx]);
+            }
+        } finally {
+            candidateCount = 0;
+            confidencesMat.release();
+            boxesMat.release();
+            indices.release();
+        }
+
+        return filteredBoxes;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public long getForwardPasses() {
+        return forwardPasses;
+    }
+
+    @Override
+    public long getDetectNanos() {
+        return detectNanos;
+    }
+
+    @Override
+    public StageTimings getTimings() {
+        return timings;
+    }
+}
@@ -0,0 +1,208 @@
+package cdle.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.io.VLongWritable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.NullOutputFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Scalar;
+
+// FrameMapper in a local job, over detectors that fail
+public class FrameMapperTest {
+
+    static {
+        Utils.loadNative();
+    }
+
+    private static final int FRAMES = 6;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Every forward pass fails, as on a GPU error
+    private static class FailingDetector implements Detector {
+        @Override
+        public void detect(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences) {
+            throw new IllegalArgumentException("forward pass failed");
+        }
+
+        @Override
+        public String getName() {
+            return "failing";
+        }
+
+        @Override
+        public long getFrames() {
+            return 0;
+        }
+
+        @Override
+        public long getForwardPasses() {
+            return 0;
+        }
+
+        @Override
+        public long getDetectNanos() {
+            return 0;
+        }
+
+        @Override
+        public StageTimings getTimings() {
+            return new StageTimings();
+        }
+    }
+
+    // Finds a player without a confidence, so the possession of every frame fails after the detection
+    private static class BrokenBoxDetector extends FailingDetector {
+        @Override
+        public void detect(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences) {
+            for (int i = 0; i < images.size(); i++) {
+                playerBoxes.add(Arrays.asList(new Rect2d(10, 10, 20, 40)));
+                confidences.add(Collections.<Float>singletonList(null));
+            }
+        }
+    }
+
+    public static class BrokenBoxMapper extends ImageMapper {
+        @Override
+        ImageAnnotator createAnnotator(Configuration conf) {
+            return new ImageAnnotator(new BrokenBoxDetector());
+        }
+    }
+
+    public static class FailingDetectorMapper extends ImageMapper {
+        @Override
+        ImageAnnotator createAnnotator(Configuration conf) {
+            return new ImageAnnotator(new FailingDetector());
+        }
+    }
+
+    // The local job runs the task in this JVM, so the frames it read are counted here
+    public static class MissingModelMapper extends ImageMapper {
+        static final AtomicInteger framesRead = new AtomicInteger();
+
+        @Override
+        ImageAnnotator createAnnotator(Configuration conf) throws IOException {
+            throw new IOException("Failed to initialize ImageAnnotator");
+        }
+
+        @Override
+        protected void map(FrameKey key, BytesWritable value, Context context) throws IOException, InterruptedException {
+            framesRead.incrementAndGet();
+            super.map(key, value, context);
+        }
+    }
+
+    @Test
+    public void failedDetectionsAreCountedAndNotEmitted() throws Exception {
+        Job job = job(FailingDetectorMapper.class, 1);
+        assertTrue(job.waitForCompletion(false));
+
+        Counters counters = job.getCounters();
+        assertEquals(FRAMES, counters.findCounter("ImageProcessing", "FailedFrames").getValue());
+        assertEquals(FRAMES / 2, counters.findCounter("ImageProcessing", "Errors").getValue());
+        assertEquals(0, counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+    }
+
+    @Test
+    public void failedDetectionsOnWorkerThreadsAreCountedAndNotEmitted() throws Exception {
+        Job job = job(FailingDetectorMapper.class, 2);
+        assertTrue(job.waitForCompletion(false));
+
+        Counters counters = job.getCounters();
+        assertEquals(FRAMES, counters.findCounter("ImageProcessing", "FailedFrames").getValue());
+        assertEquals(0, counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+    }
+
+    @Test
+    public void failedPossessionsAreNotCached() throws Exception {
+        File cacheDir = folder.newFolder("cache");
+        Job job = job(BrokenBoxMapper.class, 1);
+        job.getConfiguration().set("cache.dir", cacheDir.getPath());
+        assertTrue(job.waitForCompletion(false));
+
+        Counters counters = job.getCounters();
+        assertEquals(FRAMES, counters.findCounter("ImageProcessing", "FailedFrames").getValue());
+        assertEquals(0, counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue());
+        try (Stream<java.nio.file.Path> files = Files.walk(cacheDir.toPath())) {
+            assertEquals(0, files.filter(Files::isRegularFile).count());
+        }
+    }
+
+    @Test
+    public void missingModelOnWorkerThreadsFailsTheTask() throws Exception {
+        MissingModelMapper.framesRead.set(0);
+        assertFalse(job(MissingModelMapper.class, 2, 100).waitForCompletion(false));
+
+        // The task stops at the first failed batch, instead of dropping every batch of its split
+        assertTrue(MissingModelMapper.framesRead.get() < 100);
+    }
+
+    // Frames in batches of two, on the task thread or the given number of detection threads
+    private Job job(Class<? extends ImageMapper> mapper, int threads) throws Exception {
+        return job(mapper, threads, FRAMES);
+    }
+
+    private Job job(Class<? extends ImageMapper> mapper, int threads, int frames) throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+        conf.setInt("yolo.batch.size", 2);
+        conf.setInt("yolo.mapper.threads", threads);
+        conf.set("latency.output.dir", folder.newFolder().getPath());
+
+        Path input = new Path(folder.newFolder().getPath(), "frames.seq");
+        writeFrames(conf, input, frames);
+
+        Job job = Job.getInstance(conf);
+        job.setMapperClass(mapper);
+        job.setNumReduceTasks(0);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(NullOutputFormat.class);
+        job.setOutputKeyClass(VIntWritable.class);
+        job.setOutputValueClass(VLongWritable.class);
+        FileInputFormat.addInputPath(job, input);
+        return job;
+    }
+
+    private static void writeFrames(Configuration conf, Path path, int frames) throws IOException {
+        FrameCodec codec = new FrameCodec("jpg", 1);
+        BytesWritable payload = new BytesWritable();
+        Mat frame = new Mat(72, 128, CvType.CV_8UC3, new Scalar(60, 120, 170));
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(path),
+                SequenceFile.Writer.keyClass(FrameKey.class), SequenceFile.Writer.valueClass(BytesWritable.class))) {
+            for (int i = 0; i < frames; i++) {
+                codec.encode(frame, payload);
+                writer.append(new FrameKey("clip.mp4", "0123abcd", i, i * 200L), payload);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package cdle.opencv;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoWriter;
+
+// Segments written to a folder, followed by LivePossession with a detector that returns the two players drawn
+public class LivePossessionTest {
+
+    static {
+        Utils.loadNative();
+    }
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+    private static final double FPS = 25;
+
+    private static final Rect2d RED_PLAYER = new Rect2d(150, 120, 70, 200);
+    private static final Rect2d YELLOW_PLAYER = new Rect2d(420, 120, 70, 200);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // Counts the frames detected, always finding both players
+    private static class FixedDetector implements Detector {
+        long frames;
+
+        @Override
+        public void detect(List<Mat> images, List<List<Rect2d>> playerBoxes, List<List<Float>> confidences) {
+            for (int i = 0; i < images.size(); i++) {
+                playerBoxes.add(Arrays.asList(RED_PLAYER, YELLOW_PLAYER));
+                confidences.add(Arrays.asList(0.9f, 0.9f));
+            }
+            frames += images.size();
+        }
+
+        @Override
+        public String getName() {
+            return "fixed";
+        }
+
+        @Override
+        public long getFrames() {
+            return frames;
+        }
+
+        @Override
+        public long getForwardPasses() {
+            return frames;
+        }
+
+        @Override
+        public long getDetectNanos() {
+            return 0;
+        }
+
+        @Override
+        public StageTimings getTimings() {
+            return new StageTimings();
+        }
+    }
+
+    @Test
+    public void eachTeamHoldsTheBallUntilTheNextSample() throws Exception {
+        File segments = folder.newFolder("segments");
+        writeSegment(new File(segments, "segment_000.avi"), RED_PLAYER);
+        writeSegment(new File(segments, "segment_001.avi"), YELLOW_PLAYER);
+
+        FixedDetector detector = new FixedDetector();
+        List<String> totals = run(segments, detector, new Configuration(false));
+
+        // Samples every 0.4 s: red from 0 to 2 s, yellow from 2 s to the last sample at 3.6 s
+        assertEquals(Arrays.asList("Lakers (Yellow)\t1.6", "Trailblazers (Red)\t2.0"), totals);
+        assertEquals(10, detector.getFrames());
+    }
+
+    @Test
+    public void prefilterComparesFramesAcrossSegments() throws Exception {
+        File segments = folder.newFolder("segments");
+        writeSegment(new File(segments, "segment_000.avi"), RED_PLAYER);
+        writeSegment(new File(segments, "segment_001.avi"), RED_PLAYER);
+
+        Configuration conf = new Configuration(false);
+        conf.setBoolean("prefilter.enabled", true);
+        conf.setDouble("prefilter.court.min.ratio", 0);
+
+        // The frames never change, so only the first sample of the stream is detected
+        FixedDetector detector = new FixedDetector();
+        List<String> totals = run(segments, detector, conf);
+
+        assertEquals(Arrays.asList("Trailblazers (Red)\t3.6"), totals);
+        assertEquals(1, detector.getFrames());
+    }
+
+    private List<String> run(File segments, Detector detector, Configuration conf) throws Exception {
+        File totalsFile = new File(folder.getRoot(), "totals.txt");
+        conf.setFloat("frames.interval.seconds", 0.4f);
+        conf.setLong("live.poll.millis", 50);
+        conf.setFloat("live.idle.seconds", 1);
+
+        int exitCode = ToolRunner.run(conf, new LivePossession(new ImageAnnotator(detector)),
+                new String[] { segments.getPath(), totalsFile.getPath() });
+        assertEquals(0, exitCode);
+        return Files.readAllLines(totalsFile.toPath(), StandardCharsets.UTF_8);
+    }
+
+    // Two seconds of MJPEG, the ball next to holder, which OpenCV writes without FFmpeg
+    private static void writeSegment(File file, Rect2d holder) throws IOException {
+        VideoWriter writer = new VideoWriter(file.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), FPS,
+                new Size(WIDTH, HEIGHT));
+        if (!writer.isOpened()) {
+            throw new IOException("Failed to write " + file);
+        }
+        Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, new Scalar(60, 120, 170));
+        try {
+            Imgproc.rectangle(frame, RED_PLAYER.tl(), RED_PLAYER.br(), new Scalar(0, 0, 230), -1);
+            Imgproc.rectangle(frame, YELLOW_PLAYER.tl(), YELLOW_PLAYER.br(), new Scalar(0, 230, 230), -1);
+            Imgproc.circle(frame, new Point(holder.x + holder.width + 20, holder.y + holder.height / 2), 15,
+                    new Scalar(0, 100, 255), -1);
+            for (int i = 0; i < 2 * FPS; i++) {
+                writer.write(frame);
+            }
+        } finally {
+            frame.release();
+            writer.release();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package cdle.opencv;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.VIntWritable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+// The timeline of synthetic frame keys, shuffled, sorted and grouped as in the timeline job
+public class PossessionTimelineReducerTest {
+
+    private static final Team L = Team.LAKERS;
+    private static final Team T = Team.TRAILBLAZERS;
+    private static final Team U = Team.UNKNOWN;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void segmentsTotalsAndChanges() throws Exception {
+        // A sample every 200 ms; Unknown between two Lakers samples is no change of possession
+        List<String> lines = run(frames("a.mp4", "", L, L, U, L, T, T, U, T, T));
+
+        assertEquals(Arrays.asList(
+                "a.mp4\tsegment\t0.000\t0.400\tLakers (Yellow)",
+                "a.mp4\tsegment\t0.400\t0.600\tUnknown Team",
+                "a.mp4\tsegment\t0.600\t0.800\tLakers (Yellow)",
+                "a.mp4\tsegment\t0.800\t1.200\tTrailblazers (Red)",
+                "a.mp4\tsegment\t1.200\t1.400\tUnknown Team",
+                // The last segment gets the gap before its last sample
+                "a.mp4\tsegment\t1.400\t1.800\tTrailblazers (Red)",
+                "a.mp4\ttotal\tLakers (Yellow)\t0.600\t2",
+                "a.mp4\ttotal\tTrailblazers (Red)\t0.800\t2",
+                "a.mp4\ttotal\tUnknown Team\t0.400\t2",
+                "a.mp4\tchanges\t1"), lines);
+    }
+
+    @Test
+    public void singleSampleVideoHasNoDuration() throws Exception {
+        List<String> lines = run(frames("b.mp4", "", T));
+
+        assertEquals(Arrays.asList(
+                "b.mp4\tsegment\t0.000\t0.000\tTrailblazers (Red)",
+                "b.mp4\ttotal\tTrailblazers (Red)\t0.000\t1",
+                "b.mp4\tchanges\t0"), lines);
+    }
+
+    @Test
+    public void sameNamedVideosWithDifferentContentGetATimelineEach() throws Exception {
+        List<Frame> frames = frames("clip.mp4", "1111", L, L, L);
+        frames.addAll(frames("clip.mp4", "2222", T, T));
+        List<String> lines = run(frames);
+
+        assertEquals(Arrays.asList(
+                "clip.mp4\tsegment\t0.000\t0.600\tLakers (Yellow)",
+                "clip.mp4\ttotal\tLakers (Yellow)\t0.600\t1",
+                "clip.mp4\tchanges\t0",
+                "clip.mp4\tsegment\t0.000\t0.400\tTrailblazers (Red)",
+                "clip.mp4\ttotal\tTrailblazers (Red)\t0.400\t1",
+                "clip.mp4\tchanges\t0"), lines);
+    }
+
+    private static class Frame {
+        final FrameKey key;
+        final Team team;
+
+        Frame(FrameKey key, Team team) {
+            this.key = key;
+            this.team = team;
+        }
+    }
+
+    private static List<Frame> frames(String videoId, String videoHash, Team... teams) {
+        List<Frame> frames = new ArrayList<>();
+        for (int i = 0; i < teams.length; i++) {
+            frames.add(new Frame(new FrameKey(videoId, videoHash, i, i * 200L), teams[i]));
+        }
+        return frames;
+    }
+
+    // Writes the frames in random order and runs them through the shuffle into the reducer
+    private List<String> run(List<Frame> frames) throws Exception {
+        Configuration conf = new Configuration();
+        conf.set("mapreduce.framework.name", "local");
+        conf.set("fs.defaultFS", "file:///");
+
+        Path input = new Path(folder.newFolder().getPath(), "frames.seq");
+        writeFrames(conf, input, frames);
+        File output = new File(folder.getRoot(), "output");
+
+        Job job = Job.getInstance(conf);
+        job.setMapperClass(Mapper.class);
+        job.setReducerClass(PossessionTimelineReducer.class);
+        job.setPartitionerClass(VideoPartitioner.class);
+        job.setGroupingComparatorClass(VideoGroupingComparator.class);
+        job.setNumReduceTasks(1);
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+        job.setMapOutputKeyClass(FrameKey.class);
+        job.setMapOutputValueClass(VIntWritable.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(Text.class);
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, new Path(output.getPath()));
+        assertTrue(job.waitForCompletion(false));
+
+        return Files.readAllLines(new File(output, "part-r-00000").toPath(), StandardCharsets.UTF_8);
+    }
+
+    private static void writeFrames(Configuration conf, Path path, List<Frame> frames) throws IOException {
+        List<Frame> shuffled = new ArrayList<>(frames);
+        Collections.shuffle(shuffled, new Random(42));
+        VIntWritable teamId = new VIntWritable();
+        try (SequenceFile.Writer writer = SequenceFile.createWriter(conf, SequenceFile.Writer.file(path),
+                SequenceFile.Writer.keyClass(FrameKey.class), SequenceFile.Writer.valueClass(VIntWritable.class))) {
+            for (Frame frame : shuffled) {
+                teamId.set(frame.team.getId());
+                writer.append(frame.key, teamId);
+            }
+        }
+    }
+}
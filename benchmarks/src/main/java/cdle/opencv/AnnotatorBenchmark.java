@@ -0,0 +1,82 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.core.Rect2d;
+import org.opencv.dnn.Dnn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The work after the detector: the shirt colour of one player, and the ball search per ball.search.mode
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnnotatorBenchmark {
+
+    private File directory;
+    private ImageAnnotator annotator;
+    private Mat frame;
+    private Mat player;
+    private List<Rect2d> players;
+
+    @State(Scope.Thread)
+    public static class BallSearch {
+        @Param({ "full", "roi" })
+        public String mode;
+
+        @Setup(Level.Trial)
+        public void setup(AnnotatorBenchmark benchmark) {
+            benchmark.annotator.setBallSearch(mode, 0.5, 4.0);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = SyntheticFrames.temporaryDirectory();
+        String[] files = SyntheticFrames.tinyDarknetModel(directory, 416);
+        annotator = new ImageAnnotator(new DarknetDetector(Dnn.readNetFromDarknet(files[0], files[1]),
+                Files.readAllLines(Paths.get(files[2])), 416, "opencv", "cpu"));
+
+        frame = SyntheticFrames.frame(0);
+        players = SyntheticFrames.players(0);
+        Rect2d box = players.get(0);
+        player = frame.submat(new Rect((int) box.x, (int) box.y, (int) box.width, (int) box.height));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        player.release();
+        frame.release();
+        SyntheticFrames.delete(directory);
+    }
+
+    @Benchmark
+    public Team detectShirtColor() {
+        return annotator.detectShirtColor(player);
+    }
+
+    @Benchmark
+    public Rect2d detectBasketball(BallSearch ballSearch) {
+        return annotator.detectBasketball(frame, players);
+    }
+}
@@ -0,0 +1,88 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.dnn.Dnn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/* blobFromImages and the forward pass alone, and the whole detection (forward, parse and
+   NMS), per input size and batch size. The default model is the generated tiny network,
+   which isolates the cost around the forward pass; pass the real files with
+   -p model=<cfg>,<weights>,<names> to measure YOLOv3 or a tiny YOLO. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DetectorBenchmark {
+
+    @Param({ "synthetic" })
+    public String model;
+
+    @Param({ "320", "416", "608" })
+    public int inputSize;
+
+    @Param({ "1", "4" })
+    public int batchSize;
+
+    private File directory;
+    private YoloDetector detector;
+    private final List<Mat> images = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = SyntheticFrames.temporaryDirectory();
+        String[] files = model.equals("synthetic") ? SyntheticFrames.tinyDarknetModel(directory, inputSize) : model.split(",");
+        detector = new DarknetDetector(Dnn.readNetFromDarknet(files[0], files[1]), Files.readAllLines(Paths.get(files[2])),
+                inputSize, "opencv", "cpu");
+        for (int i = 0; i < batchSize; i++) {
+            images.add(SyntheticFrames.frame(i * 10));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Mat image : images) {
+            image.release();
+        }
+        SyntheticFrames.delete(directory);
+    }
+
+    @Benchmark
+    public int forward() {
+        List<Mat> outputs = detector.forward(images);
+        int total = 0;
+        for (Mat output : outputs) {
+            total += output.total();
+            output.release();
+        }
+        return total;
+    }
+
+    @Benchmark
+    public List<List<Rect2d>> detect() {
+        List<List<Rect2d>> playerBoxes = new ArrayList<>();
+        detector.detect(images, playerBoxes, new ArrayList<>());
+        return playerBoxes;
+    }
+}
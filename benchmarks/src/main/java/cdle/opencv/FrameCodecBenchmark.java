@@ -0,0 +1,74 @@
+package cdle.opencv;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.opencv.core.Mat;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Encoding a 1280x720 frame into a SequenceFile value and decoding it back, per frames.codec
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrameCodecBenchmark {
+
+    @Param({ "jpg", "png", "raw-bgr", "raw-bgr-downscaled" })
+    public String codecName;
+
+    private FrameCodec codec;
+    private Mat frame;
+    private final BytesWritable value = new BytesWritable();
+    private final BytesWritable encoded = new BytesWritable();
+    private final MatPool pool = new MatPool(2);
+    private final MatArena arena = new MatArena(pool);
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        frame = SyntheticFrames.frame(0);
+        codec = new FrameCodec(codecName, 0.5);
+        codec.encode(frame, encoded);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frame.release();
+        pool.release();
+    }
+
+    @Benchmark
+    public int encode() throws Exception {
+        codec.encode(frame, value);
+        return value.getLength();
+    }
+
+    @Benchmark
+    public int decode() {
+        Mat image = FrameCodec.decode(encoded);
+        int rows = image.rows();
+        image.release();
+        return rows;
+    }
+
+    // As FrameMapper decodes: into the pool's direct buffer and Mats, released by closing the arena
+    @Benchmark
+    public int decodePooled() {
+        int rows = FrameCodec.decode(encoded, arena).rows();
+        arena.close();
+        return rows;
+    }
+}
@@ -0,0 +1,161 @@
+package cdle.opencv;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect2d;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.videoio.VideoWriter;
+
+/* Generated inputs for the benchmarks, so they run without footage or the YOLO files: a
+   court coloured frame with red and yellow players and an orange ball, a video of such
+   frames, and a tiny Darknet model (one convolution and a YOLO layer) with random weights. */
+public final class SyntheticFrames {
+
+    public static final int WIDTH = 1280;
+    public static final int HEIGHT = 720;
+    public static final int PLAYERS = 10;
+
+    private static final Scalar COURT = new Scalar(60, 120, 170);
+    private static final Scalar RED = new Scalar(0, 0, 230);
+    private static final Scalar YELLOW = new Scalar(0, 230, 230);
+    private static final Scalar ORANGE = new Scalar(0, 100, 255);
+
+    static {
+        Utils.loadLocal();
+    }
+
+    private SyntheticFrames() {
+    }
+
+    // Frame number index of a play: players sway, the ball moves from player to player
+    public static Mat frame(int index) {
+        Mat frame = new Mat(HEIGHT, WIDTH, CvType.CV_8UC3, COURT);
+        for (Rect2d player : players(index)) {
+            Imgproc.rectangle(frame, player.tl(), player.br(), player.x < WIDTH / 2.0 ? RED : YELLOW, -1);
+        }
+        Rect2d holder = players(index).get((index / 25) % PLAYERS);
+        Imgproc.circle(frame, new Point(holder.x + holder.width, holder.y + holder.height / 2), 18, ORANGE, -1);
+        Imgproc.putText(frame, Integer.toString(index), new Point(20, 40), Imgproc.FONT_HERSHEY_SIMPLEX, 1, new Scalar(255, 255, 255), 2);
+        return frame;
+    }
+
+    // Player boxes of frame index, as a detector would return them
+    public static List<Rect2d> players(int index) {
+        List<Rect2d> players = new ArrayList<>();
+        for (int p = 0; p < PLAYERS; p++) {
+            double x = 60 + p * 120 + 15 * Math.sin((index + p * 7) / 10.0);
+            double y = 240 + (p % 2) * 80;
+            players.add(new Rect2d(x, y, 70, 200));
+        }
+        return players;
+    }
+
+    // MJPEG video of the first frameCount frames, which OpenCV writes without FFmpeg
+    public static File video(File directory, int frameCount, double fps) throws IOException {
+        File file = new File(directory, "synthetic.avi");
+        VideoWriter writer = new VideoWriter(file.getPath(), VideoWriter.fourcc('M', 'J', 'P', 'G'), fps, new Size(WIDTH, HEIGHT));
+        if (!writer.isOpened()) {
+            throw new IOException("Failed to write " + file);
+        }
+        try {
+            for (int i = 0; i < frameCount; i++) {
+                Mat frame = frame(i);
+                writer.write(frame);
+                frame.release();
+            }
+        } finally {
+            writer.release();
+        }
+        return file;
+    }
+
+    /* Writes <directory>/tiny.cfg, tiny.weights and coco.names and returns their paths. The
+       network keeps the YOLOv3 output layout (rows of 85 values) at a fraction of its cost,
+       so it suits the benchmarks of everything around the forward pass. */
+    public static String[] tinyDarknetModel(File directory, int inputSize) throws IOException {
+        File config = new File(directory, "tiny.cfg");
+        File weights = new File(directory, "tiny.weights");
+        File names = new File(directory, "coco.names");
+
+        String cfg = "[net]\nbatch=1\nwidth=" + inputSize + "\nheight=" + inputSize + "\nchannels=3\n\n"
+                + "[convolutional]\nbatch_normalize=1\nfilters=8\nsize=3\nstride=1\npad=1\nactivation=leaky\n\n"
+                + "[maxpool]\nsize=32\nstride=32\n\n"
+                + "[convolutional]\nsize=1\nstride=1\npad=1\nfilters=255\nactivation=linear\n\n"
+                + "[yolo]\nmask=0,1,2\nanchors=10,14, 23,27, 37,58, 81,82, 135,169, 344,319\nclasses=80\nnum=6\n";
+        Files.write(config.toPath(), cfg.getBytes(StandardCharsets.UTF_8));
+
+        // Header (version 0.2, images seen), then per layer the biases, batch norm values and kernels
+        int floats = (8 * 4 + 8 * 3 * 3 * 3) + (255 + 255 * 8);
+        ByteBuffer buffer = ByteBuffer.allocate(20 + floats * 4).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0).putInt(2).putInt(0).putLong(0);
+        Random random = new Random(42);
+        for (int i = 0; i < floats; i++) {
+            buffer.putFloat((float) random.nextGaussian() * 0.5f + (i >= 24 && i < 32 ? 1.5f : 0f));
+        }
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(weights))) {
+            out.write(buffer.array());
+        }
+
+        StringBuilder classNames = new StringBuilder("person\n");
+        for (int k = 1; k < 80; k++) {
+            classNames.append("class").append(k).append('\n');
+        }
+        Files.write(names.toPath(), classNames.toString().getBytes(StandardCharsets.UTF_8));
+
+        return new String[] { config.getPath(), weights.getPath(), names.getPath() };
+    }
+
+    /* A YOLOv3 416 output for one image (10647 rows of 85 values) where one row in fifty
+       passes the objectness threshold, half of those being confident persons. */
+    public static float[] yoloOutput(int rows) {
+        float[] data = new float[rows * 85];
+        Random random = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            int offset = i * 85;
+            data[offset] = random.nextFloat();
+            data[offset + 1] = random.nextFloat();
+            data[offset + 2] = 0.05f + random.nextFloat() * 0.1f;
+            data[offset + 3] = 0.1f + random.nextFloat() * 0.2f;
+            boolean object = i % 50 == 0;
+            data[offset + 4] = object ? 0.9f : random.nextFloat() * 0.3f;
+            for (int k = 5; k < 85; k++) {
+                data[offset + k] = random.nextFloat() * 0.05f;
+            }
+            if (object) {
+                data[offset + (i % 100 == 0 ? 5 : 6 + random.nextInt(79))] = 0.8f;
+            }
+        }
+        return data;
+    }
+
+    public static File temporaryDirectory() throws IOException {
+        File directory = Files.createTempDirectory("benchmarks").toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    public static void delete(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+}
@@ -0,0 +1,109 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/* Extracts every sample of a 10 s synthetic video with VideoRecordReader, seeking to each
+   sample or decoding sequentially, at a short and a long sampling interval. Frames are
+   handed over decoded (frames.codec=none), so this is the decoding cost only. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(1)
+public class VideoExtractionBenchmark {
+
+    @Param({ "sequential", "seek" })
+    public String decodeMode;
+
+    @Param({ "0.2", "2.0" })
+    public float interval;
+
+    private File directory;
+    private FileSplit split;
+    private TaskAttemptContext context;
+
+    // Real counters, the reader increments them
+    private static class CountingReporter extends StatusReporter {
+        private final Counters counters = new Counters();
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = SyntheticFrames.temporaryDirectory();
+        File video = SyntheticFrames.video(directory, 250, 25);
+
+        Configuration conf = new Configuration();
+        conf.set("frames.decode.mode", decodeMode);
+        conf.setFloat("frames.interval.seconds", interval);
+        conf.set("frames.codec", "none");
+        context = new TaskAttemptContextImpl(conf, new TaskAttemptID(), new CountingReporter());
+        split = new FileSplit(new Path(video.toURI()), 0, video.length(), new String[0]);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticFrames.delete(directory);
+    }
+
+    @Benchmark
+    public int extract(Blackhole blackhole) throws Exception {
+        int frames = 0;
+        try (VideoRecordReader reader = new VideoRecordReader()) {
+            reader.initialize(split, context);
+            while (reader.nextKeyValue()) {
+                blackhole.consume(reader.getCurrentValue());
+                frames++;
+            }
+        }
+        return frames;
+    }
+}
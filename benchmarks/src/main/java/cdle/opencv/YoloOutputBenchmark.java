@@ -0,0 +1,97 @@
+package cdle.opencv;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect2d;
+import org.opencv.dnn.Dnn;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Parsing a YOLOv3 416 sized output into candidates, and the NMS over a frame's candidates
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class YoloOutputBenchmark {
+
+    private static final int ROWS = 10647;
+
+    private File directory;
+    private DarknetDetector detector;
+    private float[] output;
+    private Mat image;
+
+    // Several overlapping candidates per player, as YOLO gives them across anchors and scales
+    @State(Scope.Thread)
+    public static class Candidates {
+        @Param({ "50", "200" })
+        public int count;
+
+        final List<Rect2d> boxes = new ArrayList<>();
+        final List<Float> confidences = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Random random = new Random(42);
+            List<Rect2d> players = SyntheticFrames.players(0);
+            for (int i = 0; i < count; i++) {
+                Rect2d player = players.get(i % players.size());
+                boxes.add(new Rect2d(player.x + random.nextGaussian() * 5, player.y + random.nextGaussian() * 5,
+                        player.width + random.nextGaussian() * 5, player.height + random.nextGaussian() * 5));
+                confidences.add(0.5f + random.nextFloat() * 0.5f);
+            }
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        directory = SyntheticFrames.temporaryDirectory();
+        String[] files = SyntheticFrames.tinyDarknetModel(directory, 416);
+        detector = new DarknetDetector(Dnn.readNetFromDarknet(files[0], files[1]), Files.readAllLines(Paths.get(files[2])),
+                416, "opencv", "cpu");
+        output = SyntheticFrames.yoloOutput(ROWS);
+        image = new Mat(SyntheticFrames.HEIGHT, SyntheticFrames.WIDTH, CvType.CV_8UC3);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        image.release();
+        SyntheticFrames.delete(directory);
+    }
+
+    @Benchmark
+    public void parse() {
+        detector.parseYoloResults(output, 0, ROWS, 85, image);
+        detector.clearCandidates();
+    }
+
+    @Benchmark
+    public List<Rect2d> nms(Candidates candidates) {
+        for (int i = 0; i < candidates.boxes.size(); i++) {
+            Rect2d box = candidates.boxes.get(i);
+            detector.addCandidate((int) box.x, (int) box.y, (int) box.width, (int) box.height, candidates.confidences.get(i));
+        }
+        return detector.applyNMS(new ArrayList<>());
+    }
+}